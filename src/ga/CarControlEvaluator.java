@@ -1,37 +1,479 @@
 package ga;
 
 import network.Network;
+import simulation.ChunkedTrack;
 import simulation.Simulation;
 import utils.MapIO;
+import utils.MapPreprocessor;
 
-import java.awt.geom.Line2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Evaluates networks by letting them drive a car.
+ * <p>
+ * Networks are evaluated in rungs of successive halving: every network drives the first
+ * map for a short while, and only the networks that score in the best fraction of a rung
+ * go on to drive the next map for longer. The fitness is the sum of the scores of all
+ * rungs a network reached, so going further always scores higher. Since networks are
+ * evaluated one at a time, a network is compared with the networks that reached the rung
+ * in the previous generation; during the first generation, all advance.
+ * <p>
+ * The config keys are rungs, the number of rungs, rung_fraction, the fraction of networks
+ * advancing to the next rung, rung_ticks, the ticks of the first rung, each further rung
+ * running 1 / rung_fraction times as long, 0 for no limit, and rung_maps, a comma
+ * separated list of the map of each rung, the last one used for the remaining rungs,
+ * defaulting to map.
+ * <p>
+ * Networks are screened with a simulation time step of screening_dt ms and candidate
+ * champions are confirmed with the finer confirmation_dt, see
+ * {@link #confirm(Network)}. Tick budgets and scores are in ticks of
+ * {@link Simulation#UPDATE_INTERVAL}, so both time steps score on the same scale.
+ * <p>
+ * Every rung is driven trials times at once, each from its own start pose, and scores
+ * the mean of the trials. The first pose is the usual start, the others are offset by up
+ * to start_jitter units and start_heading_jitter radians. The poses are drawn anew from
+ * the seed of the run every generation, so all networks of a generation drive from the
+ * same ones.
+ * <p>
+ * Simulations without graphics run in step with the network, and the state that carries
+ * over between evaluations only changes between generations, so an evaluation depends on
+ * the network, the seed and the generation alone.
+ * <p>
+ * With a positive novelty_weight, the fitness also rewards behaving unlike the networks
+ * before, which keeps crashes early on a track from misleading the search. The behavior
+ * of a network is where it ended up in the first rung from the usual start; its novelty,
+ * see {@link NoveltyArchive}, is the mean distance to the novelty_neighbours nearest
+ * behaviors archived, and behaviors at least novelty_threshold away are archived. The
+ * fitness adds novelty_weight times the novelty. Candidate champions are picked and
+ * confirmed by the driving score alone, see {@link #score(Network)}, so a champion has to
+ * reach the target fitness by driving. The archive changes as the search goes on, so a
+ * cached fitness reflects the archive at the time.
+ * <p>
+ * The scores that advance from a rung and the novelty archive are kept by the
+ * coordinator of a distributed run alone: it sends the thresholds along with every
+ * network and workers send back the trials, see {@link #measure(Network, double[])}, so
+ * a fitness does not depend on the machine that evaluated it.
+ */
 public class CarControlEvaluator implements Evaluator {
-	private final List<Line2D> map = new ArrayList<>();
+	private static final int WARMUP = 10;
+
+	// keeps the start poses apart from the other random streams of the run
+	private static final long POSE_STREAM = 0x504f534553L;	// "POSES"
+
+	private static final ExecutorService TRIALS = Executors.newCachedThreadPool(r -> {
+		final Thread t = new Thread(r, "trial");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * The scores of the trials of one evaluation.
+	 */
+	public static class Trials {
+		private final double[] scores;
+		private final double[] behavior;
+		// the mean score of each rung driven that has one after it
+		private final double[] rungMeans;
+
+		private Trials(double[] scores, double[] behavior, double[] rungMeans) {
+			this.scores = scores;
+			this.behavior = behavior;
+			this.rungMeans = rungMeans;
+		}
+
+		/**
+		 * The reverse of {@link #toArray()}.
+		 * @throws IllegalArgumentException	if the array is not as toArray returns it
+		 */
+		private static Trials of(double[] a) {
+			if (a.length < 3 || a[2] < 0 || a[2] != (int) a[2] || a.length < 4 + (int) a[2])
+				throw new IllegalArgumentException("Bad trials: " + Arrays.toString(a));
+
+			final int rungs = (int) a[2];
+			return new Trials(
+					Arrays.copyOfRange(a, 3 + rungs, a.length),
+					Arrays.copyOfRange(a, 0, 2),
+					Arrays.copyOfRange(a, 3, 3 + rungs));
+		}
+
+		/**
+		 * Returns the behavior, the number of rung means, the rung means and the scores.
+		 */
+		private double[] toArray() {
+			final double[] a = new double[3 + rungMeans.length + scores.length];
+			a[0] = behavior[0];
+			a[1] = behavior[1];
+			a[2] = rungMeans.length;
+			System.arraycopy(rungMeans, 0, a, 3, rungMeans.length);
+			System.arraycopy(scores, 0, a, 3 + rungMeans.length, scores.length);
+			return a;
+		}
+
+		/**
+		 * Returns where the car of the first trial ended up in the first rung.
+		 */
+		public double[] getBehavior() { return behavior.clone(); }
+
+		public double getMean() {
+			double sum = 0;
+			for (double s : scores)
+				sum += s;
+			return sum / scores.length;
+		}
+
+		public double getVariance() {
+			final double mean = getMean();
+			double sum = 0;
+			for (double s : scores)
+				sum += (s - mean) * (s - mean);
+			return sum / scores.length;
+		}
+
+		public int size() { return scores.length; }
+	}
+
+	private static class Rung {
+		private final ChunkedTrack.ChunkSource track;
+		private final long ticks;
+
+		// the scores of this rung in the current generation and the score that advances
+		// to the next rung, set by the previous generation; guarded by this
+		private final List<Double> current = new ArrayList<>();
+		private double threshold = Double.NEGATIVE_INFINITY;
+
+		private Rung(ChunkedTrack.ChunkSource track, long ticks) {
+			this.track = track;
+			this.ticks = ticks;
+		}
+
+		private synchronized void record(double score) {
+			current.add(score);
+		}
+
+		private synchronized double getThreshold() {
+			return threshold;
+		}
+
+		/**
+		 * Sets the threshold to the lowest score of the generation that was in its best
+		 * fraction, so that a score advances if fewer than that fraction of the generation
+		 * scored higher.
+		 */
+		private synchronized void nextGeneration(double fraction) {
+			if (current.isEmpty())
+				return;
+
+			if (current.size() < WARMUP) {
+				threshold = Double.NEGATIVE_INFINITY;
+			}
+			else {
+				final double[] sorted =
+						current.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+				final int advancing = (int) Math.ceil(fraction * sorted.length);
+				threshold = sorted[sorted.length - advancing];
+			}
+			current.clear();
+		}
+	}
+
+	private final List<Rung> rungs = new ArrayList<>();
+	private final double fraction;
+	private final double screeningStep, confirmationStep;
 	private final boolean doGraphics;
 
+	private final int trials;
+	private final long seed;
+	private final double startJitter, headingJitter;
+	private volatile Simulation.StartPose[] poses;
+	private long generation = Long.MIN_VALUE;
+
+	private final double noveltyWeight;
+	private final NoveltyArchive archive;
+
 	public CarControlEvaluator(String mapFile, boolean doGraphics) {
-		map.addAll(MapIO.readMapSilently(mapFile));
-		this.doGraphics = doGraphics;
+		this(mapFile, 0, doGraphics);
+	}
+
+	/**
+	 * @param mapTolerance	the tolerance for simplifying the map, see
+	 *                      {@link MapPreprocessor#preprocess(List, double)}
+	 */
+	public CarControlEvaluator(String mapFile, double mapTolerance, boolean doGraphics) {
+		this(configOf(mapFile, mapTolerance, doGraphics));
+	}
+
+	/**
+	 * Reads the map, map_tolerance, do_graphics, rung, time step and trial settings of
+	 * the config.
+	 */
+	public CarControlEvaluator(Config config) {
+		final String rungMaps = config.getOrDefault("rung_maps", "").trim();
+		final List<String> mapFiles = rungMaps.isEmpty() ?
+				Collections.singletonList(config.get("map")) :
+				Arrays.asList(rungMaps.split("\\s*,\\s*"));
+		final double mapTolerance = Double.parseDouble(config.getOrDefault("map_tolerance", "0"));
+		final int rungCount = Integer.parseInt(config.getOrDefault("rungs", "1"));
+		final long ticks = Long.parseLong(config.getOrDefault("rung_ticks", "0"));
+		final String defaultStep = String.valueOf(Simulation.UPDATE_INTERVAL);
+
+		fraction = Double.parseDouble(config.getOrDefault("rung_fraction", "0.5"));
+		screeningStep = Double.parseDouble(config.getOrDefault("screening_dt", defaultStep));
+		confirmationStep = Double.parseDouble(config.getOrDefault("confirmation_dt", defaultStep));
+		doGraphics = Boolean.parseBoolean(config.get("do_graphics"));
+
+		trials = Integer.parseInt(config.getOrDefault("trials", "1"));
+		seed = Evolution.seedOf(config);
+		startJitter = Double.parseDouble(config.getOrDefault("start_jitter", "0"));
+		headingJitter = Double.parseDouble(config.getOrDefault("start_heading_jitter", "0"));
+
+		if (rungCount < 1 || fraction <= 0 || fraction > 1)
+			throw new IllegalArgumentException("Bad rungs: " + rungCount + " fraction " + fraction);
+		if (screeningStep <= 0 || confirmationStep <= 0)
+			throw new IllegalArgumentException("Bad time steps: " + screeningStep + ", " +
+					confirmationStep);
+		if (trials < 1)
+			throw new IllegalArgumentException("Bad trials: " + trials);
+
+		noveltyWeight = Double.parseDouble(config.getOrDefault("novelty_weight", "0"));
+		archive = noveltyWeight <= 0 ? null : new NoveltyArchive(
+				2,
+				Integer.parseInt(config.getOrDefault("novelty_neighbours", "15")),
+				Double.parseDouble(config.getOrDefault("novelty_threshold", "0")));
+
+		final Map<String, ChunkedTrack.ChunkSource> tracks = new HashMap<>();
+		for (int i = 0; i < rungCount; i++) {
+			final String mapFile = mapFiles.get(Math.min(i, mapFiles.size() - 1));
+			final ChunkedTrack.ChunkSource track = tracks.computeIfAbsent(mapFile,
+					f -> ChunkedTrack.ChunkSource.of(
+							MapPreprocessor.preprocess(MapIO.readMapSilently(f), mapTolerance)));
+
+			rungs.add(new Rung(track, Math.round(ticks * Math.pow(1 / fraction, i))));
+		}
+
+		nextGeneration(0);
+	}
+
+	private static Config configOf(String mapFile, double mapTolerance, boolean doGraphics) {
+		final Config config = new Config();
+		config.put("map", mapFile);
+		config.put("map_tolerance", String.valueOf(mapTolerance));
+		config.put("do_graphics", String.valueOf(doGraphics));
+		return config;
+	}
+
+
+	/**
+	 * Returns an evaluator for the config, see {@link #CarControlEvaluator(Config)}.
+	 */
+	public static CarControlEvaluator fromConfig(Config config) {
+		return new CarControlEvaluator(config);
+	}
+
+
+	/**
+	 * Draws the start poses of the generation and moves the rungs and the novelty archive
+	 * on to it. Islands share an evaluator, so only the first call for a generation
+	 * counts.
+	 */
+	@Override
+	public synchronized void nextGeneration(long generation) {
+		if (generation <= this.generation)
+			return;
+		this.generation = generation;
+
+		for (Rung rung : rungs)
+			rung.nextGeneration(fraction);
+		if (archive != null)
+			archive.nextGeneration();
+
+		final SplittableRandom random = Evolution.randomOf(seed ^ POSE_STREAM, generation);
+
+		final Simulation.StartPose[] drawn = new Simulation.StartPose[trials];
+		drawn[0] = Simulation.StartPose.DEFAULT;
+		for (int i = 1; i < trials; i++)
+			drawn[i] = new Simulation.StartPose(
+					(2 * random.nextDouble() - 1) * startJitter,
+					(2 * random.nextDouble() - 1) * startJitter,
+					(2 * random.nextDouble() - 1) * headingJitter);
+
+		poses = drawn;
 	}
 
+	/**
+	 * True with more than one rung, as promotion depends on the scores of the previous
+	 * generation, with jittered start poses, which are drawn anew every generation, or
+	 * with novelty, which is scored against an archive that keeps growing.
+	 */
+	@Override
+	public boolean variesByGeneration() {
+		return rungs.size() > 1 || archive != null ||
+				trials > 1 && (startJitter > 0 || headingJitter > 0);
+	}
 
 	@Override
 	public double evaluate(Network network) {
-		Simulation.Result r = Simulation.runSimulation(map, network, doGraphics);
+		return score(network).getFitness();
+	}
+
+	/**
+	 * The objective is the mean score of the trials, the fitness adds the novelty.
+	 */
+	@Override
+	public Score score(Network network) {
+		return scoreOf(evaluateTrials(network, screeningStep, true));
+	}
+
+	/**
+	 * The scores needed to advance from each rung but the last.
+	 */
+	@Override
+	public double[] getSharedState() {
+		final double[] thresholds = new double[rungs.size() - 1];
+		for (int i = 0; i < thresholds.length; i++)
+			thresholds[i] = rungs.get(i).getThreshold();
+		return thresholds;
+	}
+
+	/**
+	 * Drives the network as {@link #score(Network)} does, advancing by the thresholds of
+	 * the shared state, and returns the trials; the novelty is left to the other copy.
+	 * @throws IllegalArgumentException	if there is not a threshold for every rung but the last
+	 */
+	@Override
+	public double[] measure(Network network, double[] sharedState) {
+		if (sharedState.length != rungs.size() - 1)
+			throw new IllegalArgumentException(
+					"Got " + sharedState.length + " thresholds for " + rungs.size() + " rungs");
+		return drive(network, screeningStep, sharedState).toArray();
+	}
+
+	@Override
+	public Score scoreOf(double[] measurements) {
+		final Trials t = Trials.of(measurements);
+		if (t.rungMeans.length >= rungs.size())
+			throw new IllegalArgumentException("Trials of more rungs than there are");
+		record(t);
+		return scoreOf(t);
+	}
 
-		final double completion = r.getCompletion();
-		final long operations = r.getOperations();
+	private Score scoreOf(Trials t) {
+		if (archive == null)
+			return Score.of(t.getMean());
+		return new Score(t.getMean() + noveltyWeight * archive.noveltyOf(t.behavior), t.getMean());
+	}
+
+	/**
+	 * Runs all rungs with the confirmation time step and reports the mean and variance
+	 * of the trials. The scores do not count towards promotion.
+	 */
+	@Override
+	public double confirm(Network network) {
+		final Trials t = evaluateTrials(network, confirmationStep, false);
+		System.out.printf("Confirmed over %d trials: mean %f, variance %f%n",
+				t.size(), t.getMean(), t.getVariance());
+		return t.getMean();
+	}
+
+	/**
+	 * Returns the scores of all trials, each summed over the rungs the network reached.
+	 * @param promote	whether a rung must be earned by the mean score of the rung before
+	 */
+	public Trials evaluateTrials(Network network, double timeStep, boolean promote) {
+		if (!promote)
+			return drive(network, timeStep, null);
+
+		final Trials t = drive(network, timeStep, getSharedState());
+		record(t);
+		return t;
+	}
+
+	/**
+	 * Records the rung means of the trials, towards the thresholds of the next generation.
+	 */
+	private void record(Trials t) {
+		for (int i = 0; i < t.rungMeans.length; i++)
+			rungs.get(i).record(t.rungMeans[i]);
+	}
+
+	/**
+	 * Drives the rungs in turn, advancing while the mean score of a rung reaches its
+	 * threshold, or through all rungs if there are no thresholds.
+	 */
+	private Trials drive(Network network, double timeStep, double[] thresholds) {
+		final Simulation.StartPose[] starts = poses;
+		final double[] totals = new double[starts.length];
+		final double[] rungMeans = new double[rungs.size() - 1];
+		double[] behavior = null;
+		int reached = 0;
+
+		for (int i = 0; i < rungs.size(); i++) {
+			final Rung rung = rungs.get(i);
+			final Simulation.Result[] results = run(rung, network, timeStep, starts);
+			if (behavior == null)
+				behavior = new double[] {results[0].getEndX(), results[0].getEndY()};
+
+			double mean = 0;
+			for (int j = 0; j < results.length; j++) {
+				final double score = score(
+						results[j].getCompletion(),
+						results[j].getOperations() * timeStep / Simulation.UPDATE_INTERVAL);
+				totals[j] += score;
+				mean += score / results.length;
+			}
+
+			if (i == rungs.size() - 1)
+				break;
+			rungMeans[reached++] = mean;
+			if (thresholds != null && mean < thresholds[i])
+				break;
+		}
+
+		return new Trials(totals, behavior, Arrays.copyOf(rungMeans, reached));
+	}
+
+	/**
+	 * Drives the rung from all start poses at once.
+	 */
+	private Simulation.Result[] run(Rung rung, Network network, double timeStep,
+									Simulation.StartPose[] starts) {
+		final double steps = timeStep / Simulation.UPDATE_INTERVAL;
+		final long ticks = rung.ticks == 0 ? 0 : Math.max(1, Math.round(rung.ticks / steps));
+
+		final List<CompletableFuture<Simulation.Result>> others = new ArrayList<>();
+		for (int i = 1; i < starts.length; i++) {
+			final Simulation.StartPose start = starts[i];
+			others.add(CompletableFuture.supplyAsync(() -> Simulation.runSimulation(
+					rung.track, network, doGraphics, ticks, timeStep, start), TRIALS));
+		}
+
+		final Simulation.Result[] results = new Simulation.Result[starts.length];
+		results[0] =
+				Simulation.runSimulation(rung.track, network, doGraphics, ticks, timeStep, starts[0]);
+		for (int i = 1; i < starts.length; i++)
+			results[i] = others.get(i - 1).join();
+
+		return results;
+	}
 
+	/**
+	 * @param operations	the ticks of {@link Simulation#UPDATE_INTERVAL} the car drove
+	 */
+	private static double score(double completion, double operations) {
 			/*
 			The more operations the network took, the slower it drove, the lower the score.
 			The more the network completes, the higher the score.
 
 			Completion is squared so it is more important.
 			 */
-		double fitness = completion * completion / operations;
-		return fitness;
+		return completion * completion / operations;
 	}
 }
@@ -0,0 +1,177 @@
+package ga;
+
+import network.Network;
+import simulation.Simulation;
+import utils.ConfigIO;
+import utils.NetworkIO;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates networks sent by a {@link RemoteEvaluator} over TCP.
+ * <p>
+ * The protocol, in the byte order of DataOutputStream:
+ * <ul>
+ *     <li>handshake: the coordinator sends {@link #MAGIC}, the worker answers MAGIC and
+ *     the number of evaluations it runs at once</li>
+ *     <li>request: the generation, see {@link Evaluator#nextGeneration(long)}, the length
+ *     and doubles of the shared state, see {@link Evaluator#getSharedState()}, the length
+ *     of the network, then the network as written by
+ *     {@link NetworkIO#encode(Network, java.nio.ByteBuffer)}</li>
+ *     <li>response: the length and doubles of the measurements, see
+ *     {@link Evaluator#measure(Network, double[])}</li>
+ * </ul>
+ * Every connection is served by its own thread, one evaluation at a time; the coordinator
+ * opens a connection for each evaluation the worker runs at once.
+ */
+public class EvaluationWorker {
+	static final int MAGIC = 0x4E455633;	// "NEV3"
+
+	private static final String DEFAULT_CONFIG = "configs/default.config";
+
+	/**
+	 * Arguments:
+	 * -port to listen on
+	 * -config file, graphics are always off
+	 * -number of evaluations to run at once, defaults to the number of processors
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: EvaluationWorker port [config [slots]]");
+			System.exit(1);
+		}
+
+		final Config config = ConfigIO.readSilently(args.length >= 2 ? args[1] : DEFAULT_CONFIG);
+		config.put("do_graphics", "false");
+
+		final int slots = args.length >= 3 ?
+				Integer.parseInt(args[2]) :
+				Runtime.getRuntime().availableProcessors();
+
+		try {
+			final EvaluationWorker worker = new EvaluationWorker(
+					Integer.parseInt(args[0]), CarControlEvaluator.fromConfig(config), slots);
+			System.out.println("Worker listening on port " + args[0]);
+			worker.serve();
+		}
+		catch (IOException e) {
+			System.err.println("Worker failed on port " + args[0]);
+			e.printStackTrace();
+		}
+
+		Simulation.shutdown();
+	}
+
+
+	/**
+	 * Starts a worker in a new JVM on this machine with the classpath of this one.
+	 */
+	public static Process spawnLocal(int port, String configFile, int slots) throws IOException {
+		final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+		return new ProcessBuilder(
+				java, "-cp", System.getProperty("java.class.path"),
+				EvaluationWorker.class.getName(),
+				String.valueOf(port), configFile, String.valueOf(slots))
+				.inheritIO()
+				.start();
+	}
+
+
+	private final ServerSocket server;
+	private final Evaluator evaluator;
+	private final int slots;
+
+	private final AtomicLong generation = new AtomicLong(Long.MIN_VALUE);
+
+	public EvaluationWorker(int port, Evaluator evaluator, int slots) throws IOException {
+		server = new ServerSocket(port);
+		this.evaluator = evaluator;
+		this.slots = slots;
+	}
+
+	/**
+	 * Accepts connections until the worker is closed.
+	 */
+	public void serve() throws IOException {
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			}
+			catch (IOException e) {
+				if (server.isClosed())
+					return;
+				throw e;
+			}
+
+			final Thread t = new Thread(() -> handle(socket), "evaluation-" + socket.getRemoteSocketAddress());
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	private void handle(Socket socket) {
+		try (Socket s = socket;
+			 DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+
+			s.setTcpNoDelay(true);
+
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a coordinator: " + s.getRemoteSocketAddress());
+			out.writeInt(MAGIC);
+			out.writeInt(slots);
+			out.flush();
+
+			while (true) {
+				final long g = in.readLong();
+				if (generation.getAndSet(g) != g)
+					evaluator.nextGeneration(g);
+
+				final double[] state = new double[in.readInt()];
+				for (int i = 0; i < state.length; i++)
+					state[i] = in.readDouble();
+
+				final byte[] genome = new byte[in.readInt()];
+				in.readFully(genome);
+
+				final Network network =
+						NetworkIO.decode(ByteBuffer.wrap(genome).order(ByteOrder.LITTLE_ENDIAN));
+
+				final double[] measurements = evaluator.measure(network, state);
+				out.writeInt(measurements.length);
+				for (double d : measurements)
+					out.writeDouble(d);
+				out.flush();
+			}
+		}
+		catch (EOFException e) {
+			// the coordinator hung up
+		}
+		catch (IOException e) {
+			System.err.println("Connection to " + socket.getRemoteSocketAddress() + " failed");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stops accepting connections.
+	 */
+	public void close() throws IOException {
+		server.close();
+	}
+
+	public int getPort() { return server.getLocalPort(); }
+}
@@ -5,4 +5,66 @@ import network.Network;
 @FunctionalInterface
 public interface Evaluator {
 	double evaluate(Network network);
+
+	/**
+	 * Evaluates the network as {@link #evaluate(Network)} does and returns the fitness
+	 * with its objective, see {@link Score}. Candidate champions are picked by the
+	 * objective. The fitness is all objective by default.
+	 */
+	default Score score(Network network) {
+		return Score.of(evaluate(network));
+	}
+
+	/**
+	 * Evaluates the network as accurately as possible, to confirm a candidate champion
+	 * that {@link #evaluate(Network)} may have approximated. Evaluates normally by default.
+	 */
+	default double confirm(Network network) {
+		return evaluate(network);
+	}
+
+	/**
+	 * Returns what a copy of this evaluator elsewhere needs to know to evaluate as this one
+	 * does in the current generation, see {@link #measure(Network, double[])}. Nothing by
+	 * default.
+	 */
+	default double[] getSharedState() {
+		return new double[0];
+	}
+
+	/**
+	 * Evaluates the network with the shared state of another copy of this evaluator,
+	 * leaving the state of this one as it is, and returns the measurements that the other
+	 * copy turns into a score with {@link #scoreOf(double[])}. By default, the fitness and
+	 * objective of {@link #score(Network)}.
+	 */
+	default double[] measure(Network network, double[] sharedState) {
+		final Score score = score(network);
+		return new double[] {score.getFitness(), score.getObjective()};
+	}
+
+	/**
+	 * Returns the score of the measurements taken elsewhere with the shared state of this
+	 * evaluator, which goes on as if it had evaluated the network itself.
+	 * @throws IllegalArgumentException	if the measurements are not as measure returns them
+	 */
+	default Score scoreOf(double[] measurements) {
+		if (measurements.length != 2)
+			throw new IllegalArgumentException("Bad measurements: " + measurements.length);
+		return new Score(measurements[0], measurements[1]);
+	}
+
+	/**
+	 * Called when a generation starts. Evaluators that vary the conditions of their
+	 * evaluations vary them here, so all networks of a generation face the same ones.
+	 */
+	default void nextGeneration(long generation) {}
+
+	/**
+	 * Returns true if the fitness of a network may change from one generation to the
+	 * next, so results of one generation must not be reused in another.
+	 */
+	default boolean variesByGeneration() {
+		return false;
+	}
 }
@@ -0,0 +1,148 @@
+package ga;
+
+import network.Genome;
+import network.Network;
+import utils.CheckpointLog;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Evolves a population until a genome solves the task, see
+ * {@link #solves(Genome, double)}. Populations are kept as {@link Genome}s; a Network is
+ * built only for the time it is evaluated.
+ */
+interface Evolution {
+
+	/**
+	 * Called after every generation.
+	 */
+	@FunctionalInterface
+	interface Listener {
+		/**
+		 * @param population	the population ranked fittest first; members may be replaced
+		 * @return false to stop evolving
+		 */
+		boolean generationDone(long generation, List<Genome> population);
+	}
+
+	/**
+	 * Evolves the population, which is modified, and returns the genome that solves the
+	 * task, or the fittest one if the listener stops the evolution first.
+	 */
+	Genome run(List<Genome> population);
+
+	/**
+	 * Returns the number of the last generation.
+	 */
+	long getGeneration();
+
+	void setListener(Listener listener);
+
+
+	/**
+	 * Returns the evolution selected by evolution_mode: generational, the default, or
+	 * steady_state.
+	 * @param log			the log every generation is appended to, may be null
+	 * @param generation	the number of generations run before
+	 */
+	static Evolution of(Config config, Evaluator evaluator, CheckpointLog log, long generation) {
+		if (config.getOrDefault("evolution_mode", "generational").equals("steady_state"))
+			return new SteadyStateEvolution(config, evaluator, log, generation);
+		return new GenerationalEvolution(config, evaluator, log, generation);
+	}
+
+	/**
+	 * Returns the number of evaluations to run at once, evaluation_threads or the number
+	 * of processors.
+	 */
+	static int threadsOf(Config config) {
+		return Integer.parseInt(config.getOrDefault(
+				"evaluation_threads",
+				String.valueOf(Runtime.getRuntime().availableProcessors())));
+	}
+
+	/**
+	 * Returns the seed of the run, the config key seed.
+	 */
+	static long seedOf(Config config) {
+		return Long.parseLong(config.getOrDefault("seed", "0"));
+	}
+
+	/**
+	 * Returns the random stream of the generation, which depends on nothing but the seed
+	 * and the generation. Tasks get streams split from it in a fixed order, so a run makes
+	 * the same random choices however its tasks are scheduled, and a resumed run makes the
+	 * same ones as an uninterrupted one.
+	 */
+	static SplittableRandom randomOf(long seed, long generation) {
+		return new SplittableRandom(new SplittableRandom(seed).nextLong() + generation);
+	}
+
+	/**
+	 * Returns the random stream of the task at the specified position in the generation,
+	 * which depends on nothing but the seed, the generation and the position, so tasks
+	 * may run in any order and on any thread.
+	 */
+	static SplittableRandom randomOf(long seed, long generation, long index) {
+		return new SplittableRandom(randomOf(seed, generation).nextLong() + index);
+	}
+
+	/**
+	 * Sets the fitness of the genome as scored on the network it builds. If the objective
+	 * reaches the target fitness, the genome is a candidate champion and its objective is
+	 * replaced by that of {@link Evaluator#confirm(Network)}, keeping the rest of the
+	 * fitness, so candidates rank on the same scale as the others; how far the two
+	 * objectives differ is reported.
+	 */
+	static void evaluate(Evaluator evaluator, Genome genome, double targetFitness) {
+		final Network network = genome.toNetwork();
+		final Score score = evaluator.score(network);
+		genome.setFitness(score.getFitness(), score.getObjective());
+		if (score.getObjective() < targetFitness)
+			return;
+
+		final double screened = score.getObjective();
+		final double confirmed = evaluator.confirm(network);
+		genome.setFitness(score.getFitness() - screened + confirmed, confirmed);
+		// relative to a confirmed fitness of 0 the divergence is undefined, print it absolute
+		if (confirmed == 0)
+			System.out.printf("Champion candidate: %f screened, %f confirmed, %+f divergence%n",
+					screened, confirmed, screened - confirmed);
+		else
+			System.out.printf("Champion candidate: %f screened, %f confirmed, %+.1f%% divergence%n",
+					screened, confirmed, 100 * (screened - confirmed) / Math.abs(confirmed));
+	}
+
+	/**
+	 * Returns true if the genome solves the task, that is its objective reaches the target
+	 * fitness. Its fitness may reach the target without, with the help of novelty.
+	 */
+	static boolean solves(Genome genome, double targetFitness) {
+		return genome.getObjective() >= targetFitness;
+	}
+
+	/**
+	 * Returns the first member of the population that solves the task, or null if none
+	 * does.
+	 */
+	static Genome solutionOf(List<Genome> population, double targetFitness) {
+		for (Genome genome : population)
+			if (solves(genome, targetFitness))
+				return genome;
+		return null;
+	}
+
+	/**
+	 * Returns a pool of daemon threads to breed and evaluate networks on.
+	 */
+	static ExecutorService newWorkerPool(int threads) {
+		return Executors.newFixedThreadPool(threads, r -> {
+			final Thread t = new Thread(r, "evolution-worker");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+}
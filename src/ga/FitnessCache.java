@@ -0,0 +1,293 @@
+package ga;
+
+import network.Network;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the scores of networks so that no network is evaluated twice.
+ * <p>
+ * Networks are keyed by {@link Network#structuralHash()} combined with a hash of the
+ * config and the map, so structurally identical networks share their fitness and a
+ * change to the config or map starts afresh. If the evaluator
+ * {@link Evaluator#variesByGeneration() varies by generation}, the generation is part of
+ * the key as well, so results are only shared within a generation.
+ * <p>
+ * Recent results are kept in memory with least recently used eviction; optionally,
+ * evicted results go on living in a fixed size table on disk, which also carries them
+ * over to later runs. A network that is already being evaluated by another thread is
+ * waited for instead of evaluated again.
+ * <p>
+ * The config keys are fitness_cache_size, the number of results kept in memory,
+ * fitness_cache_file, the disk table or empty for none, and fitness_cache_disk_size, the
+ * number of results the disk table holds.
+ */
+public class FitnessCache implements Evaluator, AutoCloseable {
+	private final Evaluator evaluator;
+	private final long context;
+	private final boolean perGeneration;
+	// the latest generation started, islands may report older ones; guarded by this
+	private long generation = Long.MIN_VALUE;
+
+	private final Map<Long, Score> memory;
+	private final Map<Long, CompletableFuture<Score>> running = new ConcurrentHashMap<>();
+	private final DiskTable disk;
+
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+	/**
+	 * @param context	identifies what the evaluator evaluates, for example the config
+	 * @param diskFile	the disk table, null for none
+	 */
+	public FitnessCache(Evaluator evaluator, long context, int capacity,
+						Path diskFile, int diskCapacity) throws IOException {
+		this.evaluator = evaluator;
+		this.context = context;
+		perGeneration = evaluator.variesByGeneration();
+
+		memory = new LinkedHashMap<Long, Score>(capacity, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Score> eldest) {
+				if (size() <= capacity)
+					return false;
+				if (disk != null)
+					disk.put(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+		};
+
+		disk = diskFile == null ? null : new DiskTable(diskFile, diskCapacity);
+	}
+
+	/**
+	 * Wraps the evaluator in a cache as configured, or returns it as it is if
+	 * fitness_cache_size is 0.
+	 */
+	public static Evaluator wrap(Evaluator evaluator, Config config) {
+		final int capacity = Integer.parseInt(config.getOrDefault("fitness_cache_size", "0"));
+		if (capacity <= 0)
+			return evaluator;
+
+		final String file = config.getOrDefault("fitness_cache_file", "");
+		final int diskCapacity =
+				Integer.parseInt(config.getOrDefault("fitness_cache_disk_size", "1048576"));
+
+		try {
+			return new FitnessCache(
+					evaluator, contextOf(config), capacity,
+					file.isEmpty() ? null : Paths.get(file), diskCapacity);
+		}
+		catch (IOException e) {
+			System.err.println("Failed to open fitness cache " + file + ", continuing without");
+			e.printStackTrace();
+			return evaluator;
+		}
+	}
+
+	/**
+	 * Returns a hash of all entries of the config and the content of its map file.
+	 */
+	public static long contextOf(Config config) {
+		final StringBuilder sb = new StringBuilder();
+		new TreeMap<>(config).forEach((k, v) -> sb.append(k).append('=').append(v).append('\n'));
+
+		long hash = sb.toString().hashCode();
+		try {
+			hash = hash * 31 + Arrays.hashCode(Files.readAllBytes(Paths.get(config.get("map"))));
+		}
+		catch (IOException | RuntimeException e) {
+			// no map to hash, the path in the config has to do
+		}
+		return hash;
+	}
+
+
+	@Override
+	public double evaluate(Network network) {
+		return score(network).getFitness();
+	}
+
+	@Override
+	public Score score(Network network) {
+		long key = network.structuralHash() ^ context;
+		if (perGeneration)
+			key ^= currentGeneration() * 0x9e3779b97f4a7c15L;
+
+		final Score known = lookup(key);
+		if (known != null) {
+			hits.incrementAndGet();
+			return known;
+		}
+
+		// the first thread to ask evaluates, the others wait for it
+		final CompletableFuture<Score> mine = new CompletableFuture<>();
+		final CompletableFuture<Score> other = running.putIfAbsent(key, mine);
+		if (other != null) {
+			hits.incrementAndGet();
+			return other.join();
+		}
+
+		misses.incrementAndGet();
+		try {
+			final Score score = evaluator.score(network);
+			synchronized (memory) {
+				memory.put(key, score);
+			}
+			mine.complete(score);
+			return score;
+		}
+		catch (RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			running.remove(key);
+		}
+	}
+
+	/**
+	 * Confirmations are rare and are not cached.
+	 */
+	@Override
+	public double confirm(Network network) {
+		return evaluator.confirm(network);
+	}
+
+	/**
+	 * Only moves forward, as the evaluator only changes its conditions for a newer
+	 * generation. Islands that lag behind report older generations.
+	 */
+	@Override
+	public void nextGeneration(long generation) {
+		synchronized (this) {
+			this.generation = Math.max(this.generation, generation);
+		}
+		evaluator.nextGeneration(generation);
+	}
+
+	private synchronized long currentGeneration() {
+		return generation;
+	}
+
+	@Override
+	public boolean variesByGeneration() {
+		return perGeneration;
+	}
+
+	private Score lookup(long key) {
+		synchronized (memory) {
+			final Score score = memory.get(key);
+			if (score != null)
+				return score;
+		}
+
+		if (disk != null) {
+			final Score score = disk.get(key);
+			if (score != null) {
+				synchronized (memory) {
+					memory.put(key, score);
+				}
+				return score;
+			}
+		}
+
+		return null;
+	}
+
+	public long getHits() { return hits.get(); }
+	public long getMisses() { return misses.get(); }
+
+	/**
+	 * Writes the results still in memory to the disk table, if there is one.
+	 */
+	@Override
+	public void close() {
+		if (disk == null)
+			return;
+
+		synchronized (memory) {
+			memory.forEach(disk::put);
+		}
+		disk.force();
+	}
+
+
+	/**
+	 * A memory-mapped open addressing hash table of (key, fitness, objective) slots. A key whose
+	 * probe sequence is full overwrites its home slot, so the table never grows.
+	 */
+	private static class DiskTable {
+		private static final int SLOT_BYTES = Long.BYTES + 2 * Double.BYTES;
+		private static final int MAX_PROBES = 8;
+		private static final long EMPTY = 0;
+
+		private final MappedByteBuffer buffer;
+		private final int slots;
+
+		private DiskTable(Path file, int slots) throws IOException {
+			if (slots <= 0 || (long) slots * SLOT_BYTES > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Bad disk table size: " + slots);
+			this.slots = slots;
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * SLOT_BYTES);
+			}
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		private static long stored(long key) {
+			return key == EMPTY ? 1 : key;
+		}
+
+		private int home(long key) {
+			return (int) Long.remainderUnsigned(key, slots);
+		}
+
+		synchronized Score get(long key) {
+			key = stored(key);
+			for (int i = 0, slot = home(key); i < MAX_PROBES; i++, slot = (slot + 1) % slots) {
+				final long k = buffer.getLong(slot * SLOT_BYTES);
+				if (k == key)
+					return new Score(
+							buffer.getDouble(slot * SLOT_BYTES + Long.BYTES),
+							buffer.getDouble(slot * SLOT_BYTES + Long.BYTES + Double.BYTES));
+				if (k == EMPTY)
+					return null;
+			}
+			return null;
+		}
+
+		synchronized void put(long key, Score score) {
+			key = stored(key);
+			int target = home(key);
+			for (int i = 0, slot = target; i < MAX_PROBES; i++, slot = (slot + 1) % slots) {
+				final long k = buffer.getLong(slot * SLOT_BYTES);
+				if (k == key || k == EMPTY) {
+					target = slot;
+					break;
+				}
+			}
+			buffer.putLong(target * SLOT_BYTES, key);
+			buffer.putDouble(target * SLOT_BYTES + Long.BYTES, score.getFitness());
+			buffer.putDouble(target * SLOT_BYTES + Long.BYTES + Double.BYTES, score.getObjective());
+		}
+
+		synchronized void force() {
+			buffer.force();
+		}
+	}
+}
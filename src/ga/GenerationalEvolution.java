@@ -0,0 +1,214 @@
+package ga;
+
+import network.Genome;
+import network.InnovationRegistry;
+import utils.CheckpointLog;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Evolves a population generation by generation.
+ * <p>
+ * Each generation the population is divided into species, and each species is ranked and
+ * culled by harshness. The survivors are kept unchanged and refilled with offspring,
+ * allotted to the species in proportion to their mean fitness: two random survivors of the
+ * same species are crossed over and the child is mutated.
+ * <p>
+ * Children are bred, mutated and evaluated on a pool of evaluation_threads workers, each
+ * with its own random stream given by the seed, the generation and its position, so
+ * children are bred while others are still being evaluated and the only barrier is the
+ * ranking at the end of the generation. Crossover and weight mutation run in parallel;
+ * the structural mutations, which draw innovation numbers, run in the order of the
+ * children. A run is therefore reproducible from its seed on any number of threads, as
+ * long as its evaluator is.
+ */
+class GenerationalEvolution implements Evolution {
+	private final Config config;
+	private final Evaluator evaluator;
+	private final CheckpointLog log;
+
+	private final double targetFitness, harshness;
+	private final int populationSize;
+	private final long seed;
+
+	private final Mutator mutator;
+	private final Speciation speciation;
+
+	private volatile long generation;
+	private Listener listener;
+
+	/**
+	 * @param log			the log every generation is appended to, may be null
+	 * @param generation	the number of generations run before
+	 */
+	GenerationalEvolution(Config config, Evaluator evaluator, CheckpointLog log, long generation) {
+		this.config = config;
+		this.evaluator = evaluator;
+		this.log = log;
+		this.generation = generation;
+
+		targetFitness = Double.parseDouble(config.get("target_fitness"));
+		harshness = Double.parseDouble(config.get("harshness"));
+		populationSize = Integer.parseInt(config.get("population_size"));
+		seed = Evolution.seedOf(config);
+
+		mutator = new Mutator(config);
+		speciation = new Speciation(config);
+	}
+
+
+	@Override
+	public Genome run(List<Genome> population) {
+		final ExecutorService workers = Evolution.newWorkerPool(Evolution.threadsOf(config));
+
+		Genome solution = null;
+		try {
+			while (solution == null) {
+				System.out.println("Generation: " + ++generation);	// something more elegant than this?
+
+				InnovationRegistry.getDefault().nextGeneration();
+				evaluator.nextGeneration(generation);
+
+				// group into species
+				final List<Speciation.Species> species =
+						speciation.speciate(population);
+				System.out.println("Species: " + species.size());
+
+				final List<List<Genome>> parents = new ArrayList<>(species.size());
+				final double[] shares = new double[species.size()];
+				int survivors = 0;
+
+				for (int i = 0; i < species.size(); i++) {
+					// rank solutions within the species
+					final List<Genome> members = new ArrayList<>(species.get(i).getMembers());
+					members.sort(Comparator.comparingDouble(Genome::getFitness).reversed());
+
+					// eliminate based on harshness, always keeping a parent
+					final int numFit =
+							Math.max(1, members.size() - (int) (members.size() * harshness));
+					parents.add(new ArrayList<>(members.subList(0, numFit)));
+					survivors += numFit;
+
+					// explicit fitness sharing, a species earns its mean fitness
+					shares[i] = Math.max(0, species.get(i).getAverageFitness());
+				}
+
+				final int[] offspring =
+						allotOffspring(shares, Math.max(0, populationSize - survivors));
+				final List<CompletableFuture<Genome>> tasks = new ArrayList<>(populationSize);
+
+				// re-evaluate the survivors
+				for (List<Genome> speciesParents : parents) {
+					for (Genome n : speciesParents) {
+						tasks.add(CompletableFuture.supplyAsync(() -> {
+							Evolution.evaluate(evaluator, n, targetFitness);
+							return n;
+						}, workers));
+					}
+				}
+
+				// reproduce within each species to refill population, mutate and evaluate;
+				// structural mutations wait for those of the child before, so innovation
+				// numbers are handed out in child order
+				CompletableFuture<?> previous = CompletableFuture.completedFuture(null);
+				int index = 0;
+				for (int i = 0; i < parents.size(); i++) {
+					final List<Genome> speciesParents = parents.get(i);
+
+					for (int j = 0; j < offspring[i]; j++) {
+						final SplittableRandom r = Evolution.randomOf(seed, generation, index++);
+
+						final CompletableFuture<Genome> bred = CompletableFuture.supplyAsync(() -> {
+							final Genome mother =
+									speciesParents.get(r.nextInt(speciesParents.size()));
+							final Genome father =
+									speciesParents.get(r.nextInt(speciesParents.size()));
+
+							final Genome child = mother.emptyCopy();
+							Genome.crossover(mother, father, child, r);
+							mutator.mutateWeights(child, r);
+							return child;
+						}, workers);
+
+						final CompletableFuture<Genome> mutated =
+								bred.thenCombineAsync(previous, (child, ignored) -> {
+									mutator.mutateStructure(child, r);
+									return child;
+								}, workers);
+						previous = mutated;
+
+						tasks.add(mutated.thenApplyAsync(child -> {
+							Evolution.evaluate(evaluator, child, targetFitness);
+							return child;
+						}, workers));
+					}
+				}
+
+				population.clear();
+				for (CompletableFuture<Genome> task : tasks)
+					population.add(task.join());
+
+				population.sort(Comparator.comparingDouble(Genome::getFitness).reversed());
+
+				if (log != null)
+					log.append(generation, population, config);
+
+				if (listener != null) {
+					final boolean keepGoing = listener.generationDone(generation, population);
+					population.sort(Comparator.comparingDouble(Genome::getFitness).reversed());
+					if (!keepGoing)
+						break;
+				}
+
+				solution = Evolution.solutionOf(population, targetFitness);
+			}
+		}
+		finally {
+			workers.shutdown();
+		}
+
+		return solution != null ? solution : population.get(0);
+	}
+
+	@Override
+	public long getGeneration() { return generation; }
+
+	@Override
+	public void setListener(Listener listener) { this.listener = listener; }
+
+
+	/**
+	 * Divides the specified number of offspring among the species in proportion to their
+	 * shares. The rounding remainder goes to the species with the largest share; if no
+	 * species has a positive share, all get the same.
+	 */
+	private static int[] allotOffspring(double[] shares, int total) {
+		final int[] counts = new int[shares.length];
+		if (shares.length == 0)
+			return counts;
+
+		double sum = 0;
+		int best = 0;
+		for (int i = 0; i < shares.length; i++) {
+			sum += shares[i];
+			if (shares[i] > shares[best])
+				best = i;
+		}
+
+		int allotted = 0;
+		for (int i = 0; i < shares.length; i++) {
+			counts[i] = sum > 0 ?
+					(int) (total * shares[i] / sum) :
+					total / shares.length;
+			allotted += counts[i];
+		}
+		counts[best] += total - allotted;
+
+		return counts;
+	}
+}
@@ -0,0 +1,290 @@
+package ga;
+
+import network.Genome;
+import utils.CheckpointLog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Evolves several populations, islands, side by side. The number of islands is read from
+ * the config key islands; each runs its own {@link Evolution} on its share of the
+ * evaluation_threads.
+ * <p>
+ * Islands never wait for each other. Every migration_interval generations an island sends
+ * copies of its migration_size fittest genomes to its neighbours, which take them in at
+ * the end of their next generation in place of their worst members. migration_topology
+ * selects the neighbours: ring, the default, sends to the next island only, complete sends
+ * to all other islands.
+ * <p>
+ * All islands share the default InnovationRegistry, so innovation numbers stay unique
+ * across islands and migrants line up with their hosts during crossover. Island i runs
+ * with the seed of the run plus i. Migrants arrive whenever their island gets to send
+ * them, so runs with several islands are not reproducible.
+ * <p>
+ * Island i is logged into the subdirectory island{i} of the run directory. The log of the
+ * run itself records the config and the furthest generation, without genomes; a run is
+ * resumed by reading the islands back with {@link #readIslands(CheckpointLog)} and
+ * passing them to {@link #resume(List, List)}.
+ */
+class IslandModel {
+	private final Config config;
+	private final Evaluator evaluator;
+	private final CheckpointLog log;
+	private final long startGeneration;
+
+	private final double targetFitness;
+	private final int islandCount, migrationInterval, migrationSize;
+	private final boolean completeTopology;
+
+	private final List<Queue<Genome>> inboxes = new ArrayList<>();
+	private final AtomicBoolean solved = new AtomicBoolean();
+	private final List<Evolution> evolutions = new ArrayList<>();
+	// the furthest generation recorded in the log of the run, guarded by this
+	private long recorded;
+
+	/**
+	 * @param log			the log of the run, island i is logged into the subdirectory
+	 *                      island{i} of its directory, may be null
+	 * @param generation	the number of generations run before
+	 */
+	IslandModel(Config config, Evaluator evaluator, CheckpointLog log, long generation) {
+		this.config = config;
+		this.evaluator = evaluator;
+		this.log = log;
+		startGeneration = generation;
+		recorded = generation;
+
+		targetFitness = Double.parseDouble(config.get("target_fitness"));
+		islandCount = Integer.parseInt(config.getOrDefault("islands", "1"));
+		migrationInterval = Integer.parseInt(config.getOrDefault("migration_interval", "10"));
+		migrationSize = Integer.parseInt(config.getOrDefault("migration_size", "2"));
+		completeTopology = config.getOrDefault("migration_topology", "ring").equals("complete");
+
+		for (int i = 0; i < islandCount; i++)
+			inboxes.add(new ConcurrentLinkedQueue<>());
+	}
+
+
+	/**
+	 * Splits the population among the islands and evolves them until one reaches the
+	 * target fitness. Returns the fittest genome of all islands; the list then holds the
+	 * final populations of all islands.
+	 */
+	Genome run(List<Genome> population) {
+		final List<List<Genome>> islands = new ArrayList<>();
+		final long[] generations = new long[islandCount];
+		for (int i = 0; i < islandCount; i++) {
+			islands.add(new ArrayList<>());
+			generations[i] = startGeneration;
+		}
+		for (int i = 0; i < population.size(); i++)
+			islands.get(i % islandCount).add(population.get(i));
+		for (List<Genome> island : islands)
+			if (island.isEmpty())
+				island.add(population.get(0).copy());
+
+		return evolve(islands, generations, population);
+	}
+
+	/**
+	 * Evolves the islands on from the checkpoints read by {@link #readIslands}, each from
+	 * its own generation. An island without a checkpoint starts from a copy of the fittest
+	 * genome of the others. Otherwise the same as {@link #run(List)}.
+	 * @param checkpoints	one per island, as many as there are islands
+	 */
+	Genome resume(List<CheckpointLog.Checkpoint> checkpoints, List<Genome> population) {
+		if (checkpoints.size() != islandCount)
+			throw new IllegalArgumentException(
+					"Expected " + islandCount + " islands, got " + checkpoints.size());
+
+		Genome fittest = null;
+		for (CheckpointLog.Checkpoint c : checkpoints)
+			if (c != null)
+				for (Genome g : c.getPopulation())
+					if (fittest == null || g.getFitness() > fittest.getFitness())
+						fittest = g;
+		if (fittest == null)
+			throw new IllegalArgumentException("No island has a checkpoint");
+
+		final List<List<Genome>> islands = new ArrayList<>();
+		final long[] generations = new long[islandCount];
+		for (int i = 0; i < islandCount; i++) {
+			final CheckpointLog.Checkpoint c = checkpoints.get(i);
+			if (c == null || c.getPopulation().isEmpty()) {
+				islands.add(new ArrayList<>(Collections.singletonList(fittest.copy())));
+				generations[i] = startGeneration;
+			}
+			else {
+				islands.add(new ArrayList<>(c.getPopulation()));
+				generations[i] = c.getGeneration();
+			}
+		}
+
+		return evolve(islands, generations, population);
+	}
+
+	/**
+	 * Reads back the last checkpoint of every island logged in the run directory of the
+	 * log, null for islands that logged nothing. Returns an empty list if the run has no
+	 * islands.
+	 */
+	static List<CheckpointLog.Checkpoint> readIslands(CheckpointLog log) throws IOException {
+		final List<CheckpointLog.Checkpoint> checkpoints = new ArrayList<>();
+		boolean any = false;
+
+		for (int i = 0; ; i++) {
+			final String directory = islandDirectory(log, i);
+			if (!CheckpointLog.isLog(directory))
+				break;
+
+			try (CheckpointLog islandLog = CheckpointLog.open(directory)) {
+				final CheckpointLog.Checkpoint c = islandLog.readLast();
+				checkpoints.add(c);
+				any |= c != null;
+			}
+		}
+
+		return any ? checkpoints : Collections.emptyList();
+	}
+
+	private Genome evolve(List<List<Genome>> islands, long[] generations,
+						  List<Genome> population) {
+		final List<CheckpointLog> logs = new ArrayList<>();
+		final List<CompletableFuture<Genome>> champions = new ArrayList<>();
+		final ExecutorService runners = Evolution.newWorkerPool(islandCount);
+
+		try {
+			for (int i = 0; i < islandCount; i++) {
+				final int index = i;
+				final Config islandConfig = new Config();
+				islandConfig.putAll(config);
+				islandConfig.put("evaluation_threads",
+						String.valueOf(Math.max(1, Evolution.threadsOf(config) / islandCount)));
+				islandConfig.put("seed", String.valueOf(Evolution.seedOf(config) + i));
+
+				final CheckpointLog islandLog = openLog(index);
+				if (islandLog != null)
+					logs.add(islandLog);
+
+				final Evolution evolution =
+						Evolution.of(islandConfig, evaluator, islandLog, generations[i]);
+				evolution.setListener((generation, members) -> migrate(index, generation, members));
+				evolutions.add(evolution);
+
+				champions.add(CompletableFuture.supplyAsync(() -> {
+					final Genome champion = evolution.run(islands.get(index));
+					if (Evolution.solves(champion, targetFitness))
+						solved.set(true);
+					return champion;
+				}, runners));
+			}
+
+			// a solution beats any fitness, which may owe to novelty
+			Genome best = null;
+			for (CompletableFuture<Genome> c : champions) {
+				final Genome champion = c.join();
+				if (best == null) {
+					best = champion;
+					continue;
+				}
+				final boolean solves = Evolution.solves(champion, targetFitness);
+				if (solves != Evolution.solves(best, targetFitness) ?
+						solves : champion.getFitness() > best.getFitness())
+					best = champion;
+			}
+
+			population.clear();
+			for (List<Genome> island : islands)
+				population.addAll(island);
+			population.sort(Comparator.comparingDouble(Genome::getFitness).reversed());
+
+			return best;
+		}
+		finally {
+			runners.shutdown();
+			logs.forEach(CheckpointLog::closeSilently);
+		}
+	}
+
+	/**
+	 * Returns the number of the last generation of the island that went furthest.
+	 */
+	long getGeneration() {
+		long generation = startGeneration;
+		for (Evolution e : evolutions)
+			generation = Math.max(generation, e.getGeneration());
+		return generation;
+	}
+
+
+	/**
+	 * Called by island i at the end of each generation.
+	 */
+	private boolean migrate(int island, long generation, List<Genome> members) {
+		record(generation);
+
+		if (solved.get())
+			return false;
+
+		// send copies of the fittest, they go on being evaluated here
+		if (generation % migrationInterval == 0) {
+			for (int i = 1; i < islandCount; i++) {
+				final int target = (island + i) % islandCount;
+				for (int j = 0; j < migrationSize && j < members.size(); j++)
+					inboxes.get(target).add(members.get(j).copy());
+
+				if (!completeTopology)
+					break;
+			}
+		}
+
+		// take in migrants in place of the worst members
+		final Queue<Genome> inbox = inboxes.get(island);
+		for (int slot = members.size() - 1; slot >= 0 && !inbox.isEmpty(); slot--)
+			members.set(slot, inbox.poll());
+
+		return true;
+	}
+
+	/**
+	 * Appends the config to the log of the run whenever an island gets further than any
+	 * before, so the run can be found and resumed from its directory.
+	 */
+	private synchronized void record(long generation) {
+		if (log == null || generation <= recorded)
+			return;
+
+		recorded = generation;
+		log.append(generation, Collections.emptyList(), config);
+	}
+
+	private static String islandDirectory(CheckpointLog log, int island) {
+		return log.getDirectory().resolve("island" + island).toString();
+	}
+
+	private CheckpointLog openLog(int island) {
+		if (log == null)
+			return null;
+
+		final String directory = islandDirectory(log, island);
+		try {
+			return CheckpointLog.open(
+					directory,
+					Integer.parseInt(config.getOrDefault("checkpoint_keyframe_interval", "10")));
+		}
+		catch (IOException e) {
+			System.err.println("Failed to create checkpoint log " + directory + ", continuing without");
+			e.printStackTrace();
+			return null;
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package ga;
+
+import network.Connection;
+import network.Genome;
+import network.InnovationRegistry;
+import network.Network;
+import network.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Applies the NEAT mutations to networks: perturbing weights, adding connections and
+ * adding nodes. The rates are read from the config:
+ * <ul>
+ *     <li>weight_mutation_rate: chance of each connection to have its weight and bias
+ *     perturbed</li>
+ *     <li>weight_mutation_power: standard deviation of the perturbation</li>
+ *     <li>add_connection_rate: chance of a network to gain a connection</li>
+ *     <li>add_node_rate: chance of a network to have a connection split by a node</li>
+ *     <li>recurrent_connections: whether added connections may close a cycle</li>
+ * </ul>
+ * A Mutator holds no state of its own; any number of threads may use it at once, as
+ * long as each passes its own random stream and no two threads mutate the same network.
+ */
+public class Mutator {
+	/**
+	 * How many random pairs of nodes are tried before giving up on adding a connection.
+	 */
+	private static final int CONNECTION_ATTEMPTS = 20;
+
+	private final double weightRate, weightPower;
+	private final double addConnectionRate, addNodeRate;
+	private final boolean recurrent;
+	private final InnovationRegistry registry;
+
+	public Mutator(Config config) {
+		this(config, InnovationRegistry.getDefault());
+	}
+
+	public Mutator(Config config, InnovationRegistry registry) {
+		weightRate = Double.parseDouble(config.getOrDefault("weight_mutation_rate", "0.8"));
+		weightPower = Double.parseDouble(config.getOrDefault("weight_mutation_power", "0.5"));
+		addConnectionRate = Double.parseDouble(config.getOrDefault("add_connection_rate", "0.1"));
+		addNodeRate = Double.parseDouble(config.getOrDefault("add_node_rate", "0.03"));
+		recurrent = Boolean.parseBoolean(config.getOrDefault("recurrent_connections", "false"));
+		this.registry = registry;
+	}
+
+
+	/**
+	 * Applies each mutation to the network with its configured chance.
+	 */
+	public void mutate(Network network, SplittableRandom random) {
+		mutateWeights(network, random);
+
+		if (random.nextDouble() < addConnectionRate)
+			mutateAddConnection(network, random);
+
+		if (random.nextDouble() < addNodeRate)
+			mutateAddNode(network, random);
+	}
+
+
+	/**
+	 * Perturbs the weight and bias of each connection with the weight mutation rate.
+	 */
+	public void mutateWeights(Network network, SplittableRandom random) {
+		for (Connection c : network.getConnections().values()) {
+			if (random.nextDouble() < weightRate) {
+				network.setWeight(c, c.getWeight() + gaussian(random) * weightPower);
+				c.setBias(c.getBias() + gaussian(random) * weightPower);
+			}
+		}
+	}
+
+
+	/**
+	 * Connects two random nodes that are not yet connected. Connections never lead into
+	 * an input or out of an output, and close a cycle only if recurrent connections are
+	 * enabled, a connection from a node to itself included. Returns false if no such pair
+	 * was found.
+	 */
+	public boolean mutateAddConnection(Network network, SplittableRandom random) {
+		final List<Node> sources = new ArrayList<>(network.getInputNodes());
+		sources.addAll(network.getHiddens().values());
+		final List<Node> targets = new ArrayList<>(network.getHiddens().values());
+		targets.addAll(network.getOutputNodes());
+
+		if (sources.isEmpty() || targets.isEmpty())
+			return false;
+
+		for (int i = 0; i < CONNECTION_ATTEMPTS; i++) {
+			final Node from = sources.get(random.nextInt(sources.size()));
+			final Node to = targets.get(random.nextInt(targets.size()));
+
+			if (isConnected(from, to) || !recurrent && Network.hasPath(to, from))
+				continue;
+
+			network.addConnection(
+					from, to,
+					gaussian(random) * weightPower, gaussian(random) * weightPower,
+					registry);
+			return true;
+		}
+
+		return false;
+	}
+
+	private static boolean isConnected(Node from, Node to) {
+		for (Connection c : from.getNextConnections())
+			if (c.getNextNode() == to)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Splits a random enabled connection with a new node. Returns false if the network
+	 * has no enabled connection.
+	 */
+	public boolean mutateAddNode(Network network, SplittableRandom random) {
+		final List<Connection> enabled = new ArrayList<>();
+		for (Connection c : network.getConnections().values())
+			if (c.isEnabled())
+				enabled.add(c);
+
+		if (enabled.isEmpty())
+			return false;
+
+		network.addNode(enabled.get(random.nextInt(enabled.size())), registry);
+		return true;
+	}
+
+
+	//////////////////////////////
+	//genomes
+
+	/**
+	 * Applies each mutation to the genome with its configured chance. Given the same
+	 * random stream, a genome mutates exactly as its network would with
+	 * {@link #mutate(Network, SplittableRandom)}.
+	 */
+	public void mutate(Genome genome, SplittableRandom random) {
+		mutateWeights(genome, random);
+		mutateStructure(genome, random);
+	}
+
+	/**
+	 * Applies the structural mutations, adding a connection and adding a node, each with
+	 * its configured chance. These are the mutations that take numbers from the
+	 * registry, so callers that need the numbers handed out in a fixed order only have to
+	 * order these.
+	 */
+	public void mutateStructure(Genome genome, SplittableRandom random) {
+		if (random.nextDouble() < addConnectionRate)
+			mutateAddConnection(genome, random);
+
+		if (random.nextDouble() < addNodeRate)
+			mutateAddNode(genome, random);
+	}
+
+	/**
+	 * Perturbs the weight and bias of each gene with the weight mutation rate.
+	 */
+	public void mutateWeights(Genome genome, SplittableRandom random) {
+		for (int i = 0; i < genome.size(); i++) {
+			if (random.nextDouble() < weightRate) {
+				genome.setWeight(i, genome.getWeight(i) + gaussian(random) * weightPower);
+				genome.setBias(i, genome.getBias(i) + gaussian(random) * weightPower);
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #mutateAddConnection(Network, SplittableRandom)}. Sources are the
+	 * inputs followed by the hidden nodes, targets the hidden nodes followed by the
+	 * outputs, as there.
+	 */
+	public boolean mutateAddConnection(Genome genome, SplittableRandom random) {
+		final int inputs = genome.getInputCount(), hiddens = genome.getHiddenCount();
+		final int sources = inputs + hiddens, targets = hiddens + genome.getOutputCount();
+
+		if (sources == 0 || targets == 0)
+			return false;
+
+		for (int i = 0; i < CONNECTION_ATTEMPTS; i++) {
+			final int s = random.nextInt(sources), t = random.nextInt(targets);
+			final long from = s < inputs ? genome.getInput(s) : genome.getHidden(s - inputs);
+			final long to = t < hiddens ? genome.getHidden(t) : genome.getOutput(t - hiddens);
+
+			if (genome.isConnected(from, to) || !recurrent && genome.hasPath(to, from))
+				continue;
+
+			genome.addConnection(
+					from, to,
+					gaussian(random) * weightPower, gaussian(random) * weightPower,
+					registry);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Same as {@link #mutateAddNode(Network, SplittableRandom)}.
+	 */
+	public boolean mutateAddNode(Genome genome, SplittableRandom random) {
+		int enabled = 0;
+		for (int i = 0; i < genome.size(); i++)
+			if (genome.isEnabled(i))
+				enabled++;
+
+		if (enabled == 0)
+			return false;
+
+		// the chosen enabled gene, counted in innovation order
+		int chosen = random.nextInt(enabled);
+		for (int i = 0; i < genome.size(); i++) {
+			if (genome.isEnabled(i) && chosen-- == 0) {
+				genome.addNode(i, registry);
+				break;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a normally distributed number with mean 0 and standard deviation 1, by the
+	 * polar method.
+	 */
+	private static double gaussian(SplittableRandom random) {
+		double x, y, s;
+		do {
+			x = 2 * random.nextDouble() - 1;
+			y = 2 * random.nextDouble() - 1;
+			s = x * x + y * y;
+		} while (s >= 1 || s == 0);
+		return x * Math.sqrt(-2 * Math.log(s) / s);
+	}
+}
@@ -1,59 +1,126 @@
 package ga;
 
+import network.Genome;
+import network.InnovationRegistry;
 import network.Network;
 import network.Node;
 import network.NodeType;
 import simulation.Simulation;
+import utils.CheckpointLog;
 import utils.ConfigIO;
 import utils.NetworkIO;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Stream;
 
 public class NeatMain {
 	private static final String DEFAULT_CONFIG = "configs/default.config";
+	private static final int LOCAL_WORKER_PORT = 7070;
 
 	private static long generations;	//just for printing some stats
 
 	/**
 	 * Arguments:
-	 * -Initial population: a directory with network files to start searching from
+	 * -Initial population: a directory with network files or a population file to start
+	 * searching from, or the checkpoint directory of an earlier run to resume it
 	 * -config file
 	 */
 	public static void main(String[] args) {
-		final List<Network> population = new ArrayList<>();
+		final List<Genome> population = new ArrayList<>();
+
+		CheckpointLog.Checkpoint resumed = null;
+		List<CheckpointLog.Checkpoint> islands = new ArrayList<>();
+		CheckpointLog log = null;
+
+		if (args.length >= 1 && CheckpointLog.isLog(args[0])) {
+			try {
+				log = CheckpointLog.open(args[0]);
+				resumed = log.readLast();
+				//an island run keeps its genomes in the logs of its islands
+				islands = IslandModel.readIslands(log);
+			}
+			catch (IOException e) {
+				System.err.println("Failed to read checkpoints: " + args[0]);
+				e.printStackTrace();
+			}
+
+			if (!islands.isEmpty()) {
+				for (CheckpointLog.Checkpoint c : islands)
+					if (c != null)
+						population.addAll(c.getPopulation());
+				System.out.println("Resuming " + islands.size() + " islands");
+			}
+			else if (resumed != null)
+				population.addAll(resumed.getPopulation());
 
-		if (args.length >= 1) {
+			if (resumed != null) {
+				generations = resumed.getGeneration();
+				System.out.println("Resuming from generation " + generations);
+			}
+		}
+		else if (args.length >= 1) {
 			Path path = Paths.get(args[0]);
 
-			if (path.toFile().isDirectory()) {
-				try (Stream<String> files = getFileNames(path)) {
-					files
-							.map(NetworkIO::readSilently)
-							.filter(Objects::nonNull)
-							.forEach(population::add);
-				}
-				catch (IOException e) {
-					System.err.println("Failed to read directory: " + args[0]);
-				}
+			if (path.toFile().isDirectory() || args[0].endsWith(NetworkIO.POPULATION_EXTENSION)) {
+				for (Network n : NetworkIO.readPopulationSilently(args[0]))
+					population.add(Genome.of(n));
 			}
 			else {
 				Network n = NetworkIO.readSilently(path.toString());
-				if (n != null) population.add(n);
+				if (n != null) population.add(Genome.of(n));
 			}
 		}
 
-		final Config config = args.length >= 2 ?
-				ConfigIO.readSilently(args[1]) :
-				ConfigIO.readSilently(DEFAULT_CONFIG);
+		final Config config;
+		if (args.length >= 2)
+			config = ConfigIO.readSilently(args[1]);
+		else if (resumed != null)
+			config = resumed.getConfig();
+		else
+			config = ConfigIO.readSilently(DEFAULT_CONFIG);
+
+		//the islands go on as they were logged
+		if (!islands.isEmpty())
+			config.put("islands", String.valueOf(islands.size()));
+
+		//a run is reproducible from its seed, which is logged with the config
+		if (config.getOrDefault("seed", "").isEmpty())
+			config.put("seed", String.valueOf(System.nanoTime()));
+		System.out.println("Seed: " + config.get("seed"));
+
+		//a resumed log keeps the keyframe interval of its run
+		final int keyframeInterval = Integer.parseInt(
+				(resumed != null ? resumed.getConfig() : config)
+						.getOrDefault("checkpoint_keyframe_interval", "10"));
+
+		if (log != null) {
+			final String directory = log.getDirectory().toString();
+			log.closeSilently();
+			try {
+				log = CheckpointLog.open(directory, keyframeInterval);
+			}
+			catch (IOException e) {
+				System.err.println("Failed to reopen checkpoint log, continuing without");
+				e.printStackTrace();
+				log = null;
+			}
+		}
+		else {
+			try {
+				log = CheckpointLog.create(
+						config.getOrDefault("checkpoint_dir", "checkpoints") + "/run", keyframeInterval);
+			}
+			catch (IOException e) {
+				System.err.println("Failed to create checkpoint log, continuing without");
+				e.printStackTrace();
+			}
+		}
 
 		System.out.println("Initializing population");
 
@@ -68,30 +135,99 @@ public class NeatMain {
 			initPopulation(population, Integer.parseInt(config.get("population_size")));
 		}
 
+		//new mutations must not reuse numbers of loaded genomes
+		population.forEach(InnovationRegistry.getDefault()::reserve);
+
 
 		System.out.println("Search started: " + LocalDateTime.now());
 
-		final boolean doGraphics = Boolean.parseBoolean(config.get("do_graphics"));
+		final Evaluator local = CarControlEvaluator.fromConfig(config);
 
-		Network solution = findSolution(
-				population,
+		//evaluate on workers if there are any, falling back to this machine
+		final List<InetSocketAddress> workers =
+				RemoteEvaluator.parseAddresses(config.getOrDefault("workers", ""));
+		final List<Process> localWorkers = spawnLocalWorkers(
+				Integer.parseInt(config.getOrDefault("local_workers", "0")),
 				config,
-				new CarControlEvaluator(config.get("map"), doGraphics));
+				workers);
+		final RemoteEvaluator remote = workers.isEmpty() ? null :
+				new RemoteEvaluator(
+						workers, local,
+						Integer.parseInt(config.getOrDefault("worker_timeout", "0")));
+
+		final Evaluator evaluator = FitnessCache.wrap(remote != null ? remote : local, config);
+
+		Genome solution = findSolution(population, islands, config, evaluator, log);
 
 		System.out.println("Solution found: " + LocalDateTime.now());
 
 
-		NetworkIO.writeSilently(solution);	//write champ
+		NetworkIO.writeSilently(solution.toNetwork());	//write champ
 
+		if (log != null)
+			log.closeSilently();
+
+		if (evaluator instanceof FitnessCache) {
+			final FitnessCache cache = (FitnessCache) evaluator;
+			System.out.println("Fitness cache: " + cache.getHits() + " hits, " +
+					cache.getMisses() + " evaluations");
+			cache.close();
+		}
+		if (remote != null)
+			remote.close();
+		localWorkers.forEach(Process::destroy);
 
 		Simulation.shutdown();
 	}
 
 
-	private static void initPopulation(List<Network> population, int size) {
+	/**
+	 * Starts the specified number of evaluation workers on this machine, listening on
+	 * consecutive ports from {@link #LOCAL_WORKER_PORT}, and adds their addresses to the
+	 * list. The processors are divided among them. The workers are given the config of
+	 * the run as it is in effect, with its seed, through a temporary file.
+	 */
+	private static List<Process> spawnLocalWorkers(int count, Config config,
+												   List<InetSocketAddress> addresses) {
+		final List<Process> processes = new ArrayList<>();
+		if (count <= 0)
+			return processes;
+
+		final Path configFile;
+		try {
+			configFile = Files.createTempFile("worker", ".config");
+			configFile.toFile().deleteOnExit();
+			ConfigIO.write(config, configFile);
+		}
+		catch (IOException e) {
+			System.err.println("Failed to write config for local workers, starting none");
+			e.printStackTrace();
+			return processes;
+		}
+
+		final int slots = Math.max(1, Runtime.getRuntime().availableProcessors() / count);
+
+		for (int i = 0; i < count; i++) {
+			final int port = LOCAL_WORKER_PORT + i;
+			try {
+				processes.add(EvaluationWorker.spawnLocal(port, configFile.toString(), slots));
+				addresses.add(new InetSocketAddress("localhost", port));
+			}
+			catch (IOException e) {
+				System.err.println("Failed to start local worker on port " + port);
+				e.printStackTrace();
+			}
+		}
+
+		return processes;
+	}
+
+
+	private static void initPopulation(List<Genome> population, int size) {
+		//8 inputs for 8 sensors, 5 outputs for 5 controls
+		final Genome empty = Genome.of(initEmptyNetwork(8, 5));
 		while (population.size() < size)
-			//8 inputs for 8 sensors, 5 outputs for 5 controls
-			population.add(initEmptyNetwork(8, 5));
+			population.add(empty.copy());
 	}
 
 
@@ -116,49 +252,29 @@ public class NeatMain {
 	}
 
 
-	private static Network findSolution(List<Network> population, Config config, Evaluator evaluator) {
-		final double targetFitness = Double.parseDouble(config.get("target_fitness"));
-		final double harshness = Double.parseDouble(config.get("harshness"));
-
-		for (double champFitness = 0; champFitness < targetFitness; ) {
-			System.out.println("Generation: " + ++generations);	// something more elegant than this?
-
-			// rank solutions
-			population.sort(Comparator.comparingDouble(Network::getFitness).reversed());
-
-			// eliminate based on harshness
-			{
-				int numUnfit = (int) (population.size() * harshness);
-				// remove the unfit ones
-				for (int i = population.size()-1;
-					 i >= 0 && numUnfit > 0;
-					 i--, numUnfit--)
-					population.remove(i);
-			}
-
-
-			// TODO reproduce to refill population
-
-
-			// TODO mutate
-
-
-			// TODO develop networks
-
-
-			// evaluate fitness
-			population.forEach(n -> n.setFitness(evaluator.evaluate(n)));
-
-			champFitness = population.get(0).getFitness();
+	/**
+	 * Evolves the population until a network reaches the target fitness, see
+	 * {@link Evolution#of(Config, Evaluator, CheckpointLog, long)}. With more than one
+	 * island, the population is split into islands that evolve side by side, see
+	 * {@link IslandModel}.
+	 * @param resumed	the checkpoints of the islands of a resumed run, empty otherwise
+	 * @param log		the log every generation is appended to, may be null
+	 */
+	private static Genome findSolution(List<Genome> population,
+									   List<CheckpointLog.Checkpoint> resumed, Config config,
+									   Evaluator evaluator, CheckpointLog log) {
+		if (Integer.parseInt(config.getOrDefault("islands", "1")) > 1) {
+			final IslandModel islands = new IslandModel(config, evaluator, log, generations);
+			final Genome champion = resumed.isEmpty() ?
+					islands.run(population) :
+					islands.resume(resumed, population);
+			generations = islands.getGeneration();
+			return champion;
 		}
 
-		return population.get(0);
-	}
-
-
-	private static Stream<String> getFileNames(Path dir) throws IOException {
-		return Files.list(dir)
-				.filter(Files::isRegularFile)
-				.map(Path::toString);
+		final Evolution evolution = Evolution.of(config, evaluator, log, generations);
+		final Genome champion = evolution.run(population);
+		generations = evolution.getGeneration();
+		return champion;
 	}
 }
@@ -0,0 +1,226 @@
+package ga;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Scores how novel a behavior is, as the mean distance to its k nearest neighbours among
+ * the behaviors archived so far. Behaviors are points of a fixed dimension; a behavior at
+ * least the threshold away from its neighbours is archived, as is every behavior while
+ * the archive holds fewer than k.
+ * <p>
+ * The archive only changes between generations: novel behaviors are collected and
+ * archived in a fixed order by {@link #nextGeneration()}, so novelty does not depend on
+ * the order in which the networks of a generation happen to be evaluated. Queries run in
+ * parallel.
+ * <p>
+ * The archive is a k-d tree, so a query visits about log n of the n archived behaviors.
+ * Behaviors are inserted as leaves and the tree is rebuilt balanced whenever its size
+ * doubles, which keeps it shallow however the behaviors arrive.
+ */
+public class NoveltyArchive {
+	private static class Node {
+		private final double[] point;
+		private final int axis;
+		private Node left, right;
+
+		private Node(double[] point, int axis) {
+			this.point = point;
+			this.axis = axis;
+		}
+	}
+
+	private static class Neighbour {
+		private final double distanceSq;
+
+		private Neighbour(double distanceSq) {
+			this.distanceSq = distanceSq;
+		}
+	}
+
+	private final int dimension, neighbours;
+	private final double threshold;
+
+	// guarded by lock
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final List<double[]> points = new ArrayList<>();
+	private Node root;
+	private int nextRebuild = 16;
+
+	// the novel behaviors of this generation, guarded by itself
+	private final List<double[]> candidates = new ArrayList<>();
+
+	/**
+	 * @param neighbours	the k of the k nearest neighbours
+	 * @param threshold		the novelty from which a behavior is archived
+	 */
+	public NoveltyArchive(int dimension, int neighbours, double threshold) {
+		if (dimension < 1 || neighbours < 1)
+			throw new IllegalArgumentException(
+					"Bad novelty archive: dimension " + dimension + ", k " + neighbours);
+
+		this.dimension = dimension;
+		this.neighbours = neighbours;
+		this.threshold = threshold;
+	}
+
+
+	/**
+	 * Returns the novelty of the behavior among the behaviors archived before this
+	 * generation, and keeps it to be archived if it is novel enough. An empty archive
+	 * finds everything novel.
+	 */
+	public double noveltyOf(double[] behavior) {
+		if (behavior.length != dimension)
+			throw new IllegalArgumentException(
+					"Behavior of dimension " + behavior.length + ", expected " + dimension);
+
+		final double novelty;
+		final boolean filling;
+		lock.readLock().lock();
+		try {
+			novelty = points.isEmpty() ? threshold : meanNearestDistance(behavior);
+			filling = points.size() < neighbours;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+
+		if (novelty >= threshold || filling) {
+			synchronized (candidates) {
+				candidates.add(behavior.clone());
+			}
+		}
+
+		return novelty;
+	}
+
+	/**
+	 * Archives the novel behaviors of the generation, ordered by their coordinates. Each is
+	 * checked against the ones archived before it, so near duplicates are archived once.
+	 */
+	public void nextGeneration() {
+		final List<double[]> novel;
+		synchronized (candidates) {
+			novel = new ArrayList<>(candidates);
+			candidates.clear();
+		}
+		novel.sort((a, b) -> {
+			for (int i = 0; i < dimension; i++)
+				if (a[i] != b[i])
+					return Double.compare(a[i], b[i]);
+			return 0;
+		});
+
+		lock.writeLock().lock();
+		try {
+			for (double[] behavior : novel)
+				if (points.size() < neighbours || meanNearestDistance(behavior) >= threshold)
+					add(behavior);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return points.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+
+	private void add(double[] point) {
+		points.add(point);
+
+		if (points.size() >= nextRebuild) {
+			root = build(new ArrayList<>(points), 0);
+			nextRebuild = points.size() * 2;
+			return;
+		}
+
+		if (root == null) {
+			root = new Node(point, 0);
+			return;
+		}
+
+		for (Node n = root; ; ) {
+			final boolean left = point[n.axis] < n.point[n.axis];
+			final Node next = left ? n.left : n.right;
+			if (next == null) {
+				final Node leaf = new Node(point, (n.axis + 1) % dimension);
+				if (left)
+					n.left = leaf;
+				else
+					n.right = leaf;
+				return;
+			}
+			n = next;
+		}
+	}
+
+	/**
+	 * Builds a balanced tree by splitting at the median of each axis in turn.
+	 */
+	private Node build(List<double[]> subset, int axis) {
+		if (subset.isEmpty())
+			return null;
+
+		subset.sort(Comparator.comparingDouble(p -> p[axis]));
+		int median = subset.size() / 2;
+		// equal coordinates go right, as they do on insertion
+		while (median > 0 && subset.get(median - 1)[axis] == subset.get(median)[axis])
+			median--;
+
+		final Node node = new Node(subset.get(median), axis);
+		final int nextAxis = (axis + 1) % dimension;
+		node.left = build(new ArrayList<>(subset.subList(0, median)), nextAxis);
+		node.right = build(new ArrayList<>(subset.subList(median + 1, subset.size())), nextAxis);
+		return node;
+	}
+
+	private double meanNearestDistance(double[] point) {
+		// the farthest of the nearest found so far on top
+		final PriorityQueue<Neighbour> nearest = new PriorityQueue<>(
+				neighbours + 1, Comparator.comparingDouble((Neighbour n) -> n.distanceSq).reversed());
+		search(root, point, nearest);
+
+		double sum = 0;
+		for (Neighbour n : nearest)
+			sum += Math.sqrt(n.distanceSq);
+		return sum / nearest.size();
+	}
+
+	private void search(Node node, double[] point, PriorityQueue<Neighbour> nearest) {
+		if (node == null)
+			return;
+
+		double distanceSq = 0;
+		for (int i = 0; i < dimension; i++)
+			distanceSq += (point[i] - node.point[i]) * (point[i] - node.point[i]);
+
+		if (nearest.size() < neighbours)
+			nearest.add(new Neighbour(distanceSq));
+		else if (distanceSq < nearest.peek().distanceSq) {
+			nearest.poll();
+			nearest.add(new Neighbour(distanceSq));
+		}
+
+		// search the side of the point first, the other only if it may hold something nearer
+		final double offset = point[node.axis] - node.point[node.axis];
+		final Node near = offset < 0 ? node.left : node.right;
+		final Node far = offset < 0 ? node.right : node.left;
+
+		search(near, point, nearest);
+		if (nearest.size() < neighbours || offset * offset < nearest.peek().distanceSq)
+			search(far, point, nearest);
+	}
+}
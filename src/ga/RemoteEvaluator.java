@@ -0,0 +1,278 @@
+package ga;
+
+import network.Network;
+import utils.NetworkIO;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates networks on {@link EvaluationWorker}s over TCP.
+ * <p>
+ * A connection is opened for every evaluation a worker runs at once, and each evaluation
+ * takes whichever connection becomes idle first, so faster machines and machines with
+ * more processors get more of the work. If a worker dies during an evaluation, the
+ * network is sent to another one. Workers without connections are reconnected at most
+ * once per {@link #RECONNECT_INTERVAL}. While no worker is reachable, networks are
+ * evaluated by the local evaluator.
+ * <p>
+ * The local evaluator also keeps the state that evaluations share: every network is
+ * sent with {@link Evaluator#getSharedState()}, and the measurements of the worker are
+ * scored by {@link Evaluator#scoreOf(double[])}, so a fitness is the same whichever
+ * worker evaluated it. Workers must run the same kind of evaluator.
+ */
+public class RemoteEvaluator implements Evaluator, AutoCloseable {
+	private static final long RECONNECT_INTERVAL = 1000;	//ms
+
+	private static class Connection {
+		private final InetSocketAddress address;
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+		private Connection(InetSocketAddress address, int timeout) throws IOException {
+			this.address = address;
+			socket = new Socket();
+			socket.connect(address, (int) RECONNECT_INTERVAL);
+			socket.setSoTimeout(timeout);
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		/**
+		 * Returns the number of evaluations the worker runs at once.
+		 */
+		private int handshake() throws IOException {
+			out.writeInt(EvaluationWorker.MAGIC);
+			out.flush();
+			if (in.readInt() != EvaluationWorker.MAGIC)
+				throw new IOException("Not an evaluation worker: " + address);
+			return in.readInt();
+		}
+
+		private void close() {
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+				// nothing left to do with it
+			}
+		}
+	}
+
+	private final Evaluator local;
+	private final int timeout;
+
+	private final BlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+	private final Map<InetSocketAddress, AtomicInteger> liveConnections = new ConcurrentHashMap<>();
+	private final AtomicInteger totalConnections = new AtomicInteger();
+	private long lastReconnect;
+
+	private volatile long generation;
+	private volatile boolean closed;
+
+	/**
+	 * @param local	keeps the shared state and evaluates networks while no worker is reachable
+	 * @param timeout	how long to wait for a worker to answer in ms, 0 to wait forever
+	 */
+	public RemoteEvaluator(List<InetSocketAddress> workers, Evaluator local, int timeout) {
+		this.local = local;
+		this.timeout = timeout;
+
+		for (InetSocketAddress address : workers)
+			liveConnections.put(address, new AtomicInteger());
+		reconnect();
+	}
+
+	/**
+	 * Parses a comma separated list of host:port pairs.
+	 * @throws IllegalArgumentException	if an entry is not of the form host:port
+	 */
+	public static List<InetSocketAddress> parseAddresses(String s) {
+		final List<InetSocketAddress> addresses = new ArrayList<>();
+
+		for (String entry : s.split(",")) {
+			entry = entry.trim();
+			if (entry.isEmpty())
+				continue;
+
+			final int colon = entry.lastIndexOf(':');
+			if (colon < 0)
+				throw new IllegalArgumentException("Missing port: " + entry);
+
+			addresses.add(new InetSocketAddress(
+					entry.substring(0, colon), Integer.parseInt(entry.substring(colon + 1))));
+		}
+
+		return addresses;
+	}
+
+
+	@Override
+	public double evaluate(Network network) {
+		return score(network).getFitness();
+	}
+
+	@Override
+	public Score score(Network network) {
+		final ByteBuffer buffer =
+				ByteBuffer.allocate(NetworkIO.encodedSize(network)).order(ByteOrder.LITTLE_ENDIAN);
+		NetworkIO.encode(network, buffer);
+		final byte[] genome = buffer.array();
+
+		while (true) {
+			final Connection c = acquire();
+			if (c == null)	// no worker reachable
+				return local.score(network);
+
+			try {
+				final double[] state = local.getSharedState();
+				c.out.writeLong(generation);
+				c.out.writeInt(state.length);
+				for (double d : state)
+					c.out.writeDouble(d);
+				c.out.writeInt(genome.length);
+				c.out.write(genome);
+				c.out.flush();
+
+				final double[] measurements = new double[c.in.readInt()];
+				for (int i = 0; i < measurements.length; i++)
+					measurements[i] = c.in.readDouble();
+
+				if (closed)
+					drop(c);
+				else
+					idle.add(c);
+				return local.scoreOf(measurements);
+			}
+			catch (IOException e) {
+				System.err.println("Worker " + c.address + " failed, evaluating elsewhere: " + e);
+				drop(c);
+			}
+		}
+	}
+
+	/**
+	 * Sent along with every network, so workers evaluate it under the conditions of the
+	 * generation.
+	 */
+	@Override
+	public void nextGeneration(long generation) {
+		this.generation = generation;
+		local.nextGeneration(generation);
+	}
+
+	/**
+	 * Workers evaluate as the local evaluator does.
+	 */
+	@Override
+	public boolean variesByGeneration() {
+		return local.variesByGeneration();
+	}
+
+	/**
+	 * Confirms with the local evaluator.
+	 */
+	@Override
+	public double confirm(Network network) {
+		return local.confirm(network);
+	}
+
+	/**
+	 * Returns an idle connection, or null if there is no connection to any worker.
+	 */
+	private Connection acquire() {
+		while (true) {
+			if (closed)
+				throw new IllegalStateException("Evaluator is closed");
+
+			Connection c = idle.poll();
+			if (c != null)
+				return c;
+
+			reconnect();
+
+			try {
+				c = idle.poll(RECONNECT_INTERVAL, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for a worker", e);
+			}
+
+			// keep waiting while all connections are busy
+			if (c != null || totalConnections.get() == 0)
+				return c;
+		}
+	}
+
+	/**
+	 * Connects to the workers that have no connections, at most once per interval.
+	 */
+	private synchronized void reconnect() {
+		final long now = System.currentTimeMillis();
+		if (now - lastReconnect < RECONNECT_INTERVAL)
+			return;
+		lastReconnect = now;
+
+		for (Map.Entry<InetSocketAddress, AtomicInteger> entry : liveConnections.entrySet()) {
+			if (entry.getValue().get() > 0)
+				continue;
+
+			final InetSocketAddress address = entry.getKey();
+			final List<Connection> connections = new ArrayList<>();
+			try {
+				final Connection first = new Connection(address, timeout);
+				connections.add(first);
+				final int slots = Math.max(1, first.handshake());
+
+				for (int i = 1; i < slots; i++) {
+					final Connection c = new Connection(address, timeout);
+					connections.add(c);
+					c.handshake();
+				}
+
+				entry.getValue().addAndGet(slots);
+				totalConnections.addAndGet(slots);
+				idle.addAll(connections);
+				System.out.println("Connected to worker " + address + " with " + slots + " slots");
+			}
+			catch (IOException e) {
+				System.err.println("Worker " + address + " unreachable: " + e);
+				connections.forEach(Connection::close);
+			}
+		}
+	}
+
+	private void drop(Connection c) {
+		c.close();
+		liveConnections.get(c.address).decrementAndGet();
+		totalConnections.decrementAndGet();
+	}
+
+	/**
+	 * Closes all idle connections. Evaluations still running finish normally.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Connection c; (c = idle.poll()) != null; )
+			drop(c);
+	}
+}
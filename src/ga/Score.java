@@ -0,0 +1,25 @@
+package ga;
+
+/**
+ * The fitness of an evaluation together with its objective, the part of the fitness that
+ * measures how well the network does the task, leaving out rewards for exploring such as
+ * novelty.
+ */
+public class Score {
+	private final double fitness, objective;
+
+	public Score(double fitness, double objective) {
+		this.fitness = fitness;
+		this.objective = objective;
+	}
+
+	/**
+	 * Returns a score that is all objective.
+	 */
+	public static Score of(double fitness) {
+		return new Score(fitness, fitness);
+	}
+
+	public double getFitness() { return fitness; }
+	public double getObjective() { return objective; }
+}
@@ -0,0 +1,257 @@
+package ga;
+
+import network.Genome;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Divides a population into species of structurally similar genomes. The parameters
+ * are read from the config:
+ * <ul>
+ *     <li>compatibility_threshold: the largest distance to a species' representative for
+ *     a genome to join the species</li>
+ *     <li>excess_coefficient, disjoint_coefficient, weight_coefficient: the weights of
+ *     excess genes, disjoint genes and the mean weight difference of matching genes in
+ *     the distance</li>
+ *     <li>target_species: if positive, the threshold is raised or lowered after each
+ *     call to {@link #speciate(List)} to steer the number of species towards this</li>
+ * </ul>
+ * Genomes are only compared against the representatives of the species. Distances are
+ * remembered for as long as both genomes stay in the population, so genomes must not be
+ * changed structurally once they have been speciated.
+ */
+public class Speciation {
+	/**
+	 * Genomes smaller than this are not normalized by their size.
+	 */
+	private static final int NORMALIZE_THRESHOLD = 20;
+
+	/**
+	 * The most distances remembered at a time, further ones are computed every time.
+	 */
+	private static final int MAX_REMEMBERED = 1 << 20;
+
+	/**
+	 * How much the threshold changes per generation when steering the number of species.
+	 */
+	private static final double THRESHOLD_STEP = 0.3;
+
+	public static class Species {
+		private final int id;
+		private Genome representative;
+		private final List<Genome> members = new ArrayList<>();
+
+		private Species(int id, Genome representative) {
+			this.id = id;
+			this.representative = representative;
+		}
+
+		/**
+		 * Returns the mean fitness of the members.
+		 */
+		public double getAverageFitness() {
+			double sum = 0;
+			for (Genome n : members)
+				sum += n.getFitness();
+			return members.isEmpty() ? 0 : sum / members.size();
+		}
+
+		public int getID() { return id; }
+		public Genome getRepresentative() { return representative; }
+		public List<Genome> getMembers() { return members; }
+	}
+
+	/**
+	 * Returns the current compatibility threshold.
+	 */
+	public double getThreshold() { return threshold; }
+
+	/**
+	 * An unordered pair of genomes, compared by identity.
+	 */
+	private static class Pair {
+		private final Genome a, b;
+
+		private Pair(Genome a, Genome b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Pair))
+				return false;
+			final Pair p = (Pair) o;
+			return (a == p.a && b == p.b) || (a == p.b && b == p.a);
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(a) ^ System.identityHashCode(b);
+		}
+	}
+
+	private double threshold;
+	private final int targetSpecies;
+	private final double excessCoefficient, disjointCoefficient, weightCoefficient;
+
+	private final List<Species> species = new ArrayList<>();
+	private int nextSpeciesID;
+
+	/**
+	 * Distances between genomes of the current population.
+	 */
+	private final Map<Pair, Double> distances = new ConcurrentHashMap<>();
+
+	public Speciation(Config config) {
+		threshold = Double.parseDouble(config.getOrDefault("compatibility_threshold", "3"));
+		excessCoefficient = Double.parseDouble(config.getOrDefault("excess_coefficient", "1"));
+		disjointCoefficient = Double.parseDouble(config.getOrDefault("disjoint_coefficient", "1"));
+		weightCoefficient = Double.parseDouble(config.getOrDefault("weight_coefficient", "0.4"));
+		targetSpecies = Integer.parseInt(config.getOrDefault("target_species", "0"));
+	}
+
+
+	/**
+	 * Assigns every genome of the population to a species and returns the species that
+	 * have members. A genome joins the first species whose representative is close
+	 * enough, otherwise it founds a new species. The fittest member of each species then
+	 * becomes its representative for the next call; as survivors are carried over
+	 * unchanged, most distances to it are already known by then.
+	 * <p>
+	 * The population is compared against the existing species in parallel. Genomes that
+	 * match none of them found new species one at a time, each founder being compared
+	 * against the remaining genomes in parallel.
+	 */
+	public List<Species> speciate(List<Genome> population) {
+		forgetAllBut(population);
+		for (Species s : species)
+			s.members.clear();
+
+		final Species[] assigned = new Species[population.size()];
+		final List<Species> known = new ArrayList<>(species);
+		IntStream.range(0, population.size()).parallel().forEach(
+				i -> assigned[i] = findSpecies(population.get(i), known));
+
+		for (int i = 0; i < assigned.length; i++) {
+			if (assigned[i] != null)
+				continue;
+
+			final Species founded = new Species(nextSpeciesID++, population.get(i));
+			species.add(founded);
+			assigned[i] = founded;
+
+			IntStream.range(i + 1, population.size()).parallel().forEach(j -> {
+				if (assigned[j] == null &&
+						distance(population.get(j), founded.representative) < threshold)
+					assigned[j] = founded;
+			});
+		}
+
+		for (int i = 0; i < assigned.length; i++)
+			assigned[i].members.add(population.get(i));
+
+		species.removeIf(s -> s.members.isEmpty());
+		for (Species s : species) {
+			s.representative = s.members.get(0);
+			for (Genome n : s.members)
+				if (n.getFitness() > s.representative.getFitness())
+					s.representative = n;
+		}
+
+		if (targetSpecies > 0) {
+			if (species.size() > targetSpecies)
+				threshold += THRESHOLD_STEP;
+			else if (species.size() < targetSpecies)
+				threshold = Math.max(THRESHOLD_STEP, threshold - THRESHOLD_STEP);
+		}
+
+		return Collections.unmodifiableList(species);
+	}
+
+	private Species findSpecies(Genome genome, List<Species> candidates) {
+		for (Species s : candidates)
+			if (distance(genome, s.representative) < threshold)
+				return s;
+		return null;
+	}
+
+	/**
+	 * Drops the remembered distances involving genomes not in the population.
+	 */
+	private void forgetAllBut(List<Genome> population) {
+		final Set<Genome> alive = Collections.newSetFromMap(new IdentityHashMap<>());
+		alive.addAll(population);
+		distances.keySet().removeIf(p -> !alive.contains(p.a) || !alive.contains(p.b));
+	}
+
+
+	/**
+	 * Returns the compatibility distance between two genomes, remembering the result
+	 * while both are in the population.
+	 */
+	public double distance(Genome a, Genome b) {
+		final Pair pair = new Pair(a, b);
+		final Double known = distances.get(pair);
+		if (known != null)
+			return known;
+
+		final double d =
+				distance(a, b, excessCoefficient, disjointCoefficient, weightCoefficient);
+		if (distances.size() < MAX_REMEMBERED)
+			distances.put(pair, d);
+		return d;
+	}
+
+	/**
+	 * Computes the compatibility distance between two genomes in a single merge over
+	 * their genes in innovation order:
+	 * <pre>c1 * excess / n + c2 * disjoint / n + c3 * mean weight difference</pre>
+	 * where n is the number of genes of the larger genome, or 1 for small ones.
+	 */
+	public static double distance(Genome a, Genome b,
+								  double excessCoefficient,
+								  double disjointCoefficient,
+								  double weightCoefficient) {
+		int i = 0, j = 0;
+		int disjoint = 0, matching = 0;
+		double weightDifference = 0;
+
+		while (i < a.size() && j < b.size()) {
+			final long innovA = a.getInnovation(i);
+			final long innovB = b.getInnovation(j);
+
+			if (innovA == innovB) {
+				weightDifference += Math.abs(a.getWeight(i) - b.getWeight(j));
+				matching++;
+				i++;
+				j++;
+			}
+			else if (innovA < innovB) {
+				disjoint++;
+				i++;
+			}
+			else {
+				disjoint++;
+				j++;
+			}
+		}
+
+		// whatever is left in either is beyond the end of the other
+		final int excess = (a.size() - i) + (b.size() - j);
+
+		final int size = Math.max(a.size(), b.size());
+		final double n = size < NORMALIZE_THRESHOLD ? 1 : size;
+
+		return excessCoefficient * excess / n +
+				disjointCoefficient * disjoint / n +
+				weightCoefficient * (matching == 0 ? 0 : weightDifference / matching);
+	}
+}
@@ -0,0 +1,225 @@
+package ga;
+
+import network.Genome;
+import network.InnovationRegistry;
+import utils.CheckpointLog;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Evolves a population one genome at a time instead of in generations.
+ * <p>
+ * evaluation_threads evaluations are always in flight. Whenever one finishes, the genome
+ * joins the population, the worst member is dropped and a new child is bred and
+ * scheduled, so no worker ever waits for a slow evaluation to finish. Members keep the
+ * fitness they were evaluated with.
+ * <p>
+ * Parents are picked by tournament, the father from the species of the mother. Every
+ * population_size evaluations count as a generation: the population is speciated again
+ * and appended to the log.
+ * <p>
+ * Random choices come from a stream seeded by the run seed, and each child gets its own
+ * stream split from it. Which child is bred next depends on which evaluation finishes
+ * first, though, so unlike {@link GenerationalEvolution} a run is not reproducible.
+ */
+class SteadyStateEvolution implements Evolution {
+	private static final int TOURNAMENT_SIZE = 3;
+
+	private final Config config;
+	private final Evaluator evaluator;
+	private final CheckpointLog log;
+
+	private final double targetFitness;
+	private final int populationSize;
+	private final int threads;
+
+	private final Mutator mutator;
+	private final Speciation speciation;
+
+	// guarded by this
+	private final List<Genome> population = new ArrayList<>();
+	private final Map<Genome, Speciation.Species> speciesOf = new IdentityHashMap<>();
+	private Genome champion;
+	private long generation, evaluations;
+	private int inFlight;
+	private SplittableRandom random;
+
+	private final CompletableFuture<Genome> solution = new CompletableFuture<>();
+	private ExecutorService workers;
+	private volatile Listener listener;
+
+	/**
+	 * @param log			the log every generation is appended to, may be null
+	 * @param generation	the number of generations run before
+	 */
+	SteadyStateEvolution(Config config, Evaluator evaluator, CheckpointLog log, long generation) {
+		this.config = config;
+		this.evaluator = evaluator;
+		this.log = log;
+		this.generation = generation;
+
+		targetFitness = Double.parseDouble(config.get("target_fitness"));
+		populationSize = Integer.parseInt(config.get("population_size"));
+		threads = Evolution.threadsOf(config);
+
+		mutator = new Mutator(config);
+		speciation = new Speciation(config);
+	}
+
+
+	/**
+	 * Evaluates the initial population, then evolves it until a genome reaches the
+	 * target fitness and returns that genome. The list then holds the final population.
+	 */
+	@Override
+	public Genome run(List<Genome> initial) {
+		workers = Evolution.newWorkerPool(threads);
+		synchronized (this) {
+			random = Evolution.randomOf(Evolution.seedOf(config), generation);
+		}
+		evaluator.nextGeneration(getGeneration());
+
+		try {
+			synchronized (this) {
+				for (Genome n : initial)
+					schedule(CompletableFuture.supplyAsync(() -> evaluate(n), workers));
+			}
+			final Genome champion = solution.join();
+
+			synchronized (this) {
+				initial.clear();
+				initial.addAll(population);
+			}
+			return champion;
+		}
+		finally {
+			workers.shutdown();
+		}
+	}
+
+	@Override
+	public synchronized long getGeneration() { return generation; }
+
+	@Override
+	public void setListener(Listener listener) { this.listener = listener; }
+
+
+	private Genome evaluate(Genome genome) {
+		Evolution.evaluate(evaluator, genome, targetFitness);
+		return genome;
+	}
+
+	private void schedule(CompletableFuture<Genome> task) {
+		inFlight++;
+		task.whenComplete((genome, e) -> {
+			if (e != null)
+				solution.completeExceptionally(e);
+			else
+				completed(genome);
+		});
+	}
+
+	private synchronized void completed(Genome genome) {
+		inFlight--;
+		if (solution.isDone())
+			return;
+
+		population.add(genome);
+		if (champion == null || genome.getFitness() > champion.getFitness())
+			champion = genome;
+
+		// replace the worst member
+		if (population.size() > populationSize) {
+			int worst = 0;
+			for (int i = 1; i < population.size(); i++)
+				if (population.get(i).getFitness() < population.get(worst).getFitness())
+					worst = i;
+
+			final Genome dropped = population.remove(worst);
+			final Speciation.Species species = speciesOf.remove(dropped);
+			if (species != null)
+				species.getMembers().remove(dropped);
+		}
+
+		if (++evaluations % populationSize == 0 && !nextGeneration()) {
+			solution.complete(champion);
+			return;
+		}
+
+		if (Evolution.solves(genome, targetFitness)) {
+			solution.complete(genome);
+			return;
+		}
+
+		while (inFlight < threads)
+			breed();
+	}
+
+	/**
+	 * Returns false if the listener stopped the evolution.
+	 */
+	private boolean nextGeneration() {
+		System.out.println("Generation: " + ++generation);
+
+		InnovationRegistry.getDefault().nextGeneration();
+		evaluator.nextGeneration(generation);
+
+		population.sort(Comparator.comparingDouble(Genome::getFitness).reversed());
+
+		boolean keepGoing = true;
+		final Listener l = listener;
+		if (l != null) {
+			keepGoing = l.generationDone(generation, population);
+			population.sort(Comparator.comparingDouble(Genome::getFitness).reversed());
+			champion = population.get(0);
+		}
+
+		speciesOf.clear();
+		final List<Speciation.Species> species = speciation.speciate(population);
+		for (Speciation.Species s : species)
+			for (Genome n : s.getMembers())
+				speciesOf.put(n, s);
+		System.out.println("Species: " + species.size());
+
+		if (log != null)
+			log.append(generation, population, config);
+
+		return keepGoing;
+	}
+
+	/**
+	 * Picks the parents and schedules breeding, mutating and evaluating their child. The
+	 * parents are never changed, so they may be dropped from the population meanwhile.
+	 */
+	private void breed() {
+		final Genome mother = tournament(population, random);
+		final Speciation.Species species = speciesOf.get(mother);
+		final Genome father = tournament(
+				species != null ? species.getMembers() : population, random);
+
+		final SplittableRandom r = random.split();
+		schedule(CompletableFuture.supplyAsync(() -> {
+			final Genome child = mother.emptyCopy();
+			Genome.crossover(mother, father, child, r);
+			mutator.mutate(child, r);
+			return evaluate(child);
+		}, workers));
+	}
+
+	private static Genome tournament(List<Genome> candidates, SplittableRandom random) {
+		Genome best = null;
+		for (int i = 0; i < TOURNAMENT_SIZE; i++) {
+			final Genome n = candidates.get(random.nextInt(candidates.size()));
+			if (best == null || n.getFitness() > best.getFitness())
+				best = n;
+		}
+		return best;
+	}
+}
@@ -20,11 +20,6 @@ public class Connection {
 		this.prevNode = prevNode;
 		this.nextNode = nextNode;
 	}
-	
-	public void transmit(double value) {
-		if (isEnabled())
-			getNextNode().write(getWeight() * value);
-	}
 
 	@Override
 	public String toString() {
@@ -81,10 +76,6 @@ public class Connection {
 	}
 
 
-	private static long globalInnovationNumber = 0;
-
-	static synchronized long getNextGlobalInnovationNum() { return globalInnovationNumber++; }
-
 	//////////////////////////////
 	//basic getters and setters
 	public long getInnovationNumber() { return innovNum; }
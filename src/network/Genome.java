@@ -0,0 +1,703 @@
+package network;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * The genetic information of a {@link Network} in primitive arrays.
+ * <p>
+ * Connection genes are stored as parallel arrays sorted by innovation number, so a gene
+ * is found by binary search, and genes from new mutations, which carry the highest
+ * innovation numbers, are appended at the end in amortized constant time. Hidden node
+ * IDs are kept sorted the same way. Input and output nodes keep their order, as it
+ * decides which sensor and which control they are wired to.
+ * <p>
+ * A Genome holds no objects per gene, so a population of them costs a fraction of the
+ * heap of the equivalent Networks and next to nothing to garbage collect. Evolution keeps
+ * its populations as Genomes and builds the Network with {@link #toNetwork()} only to
+ * evaluate it.
+ * <p>
+ * The phenotype of the first network built is kept and patched by the mutations, and a
+ * child of {@link #crossover} starts from the phenotype of a parent it takes after, so
+ * an evolved genome rarely has its phenotype built from scratch.
+ */
+public class Genome {
+	private static final int MIN_CAPACITY = 8;
+
+	private double fitness, objective;
+
+	private final long[] inputs, outputs;
+
+	private long[] hiddens;
+	private int hiddenCount;
+
+	private long[] innovations, prevIds, nextIds;
+	private double[] weights, biases;
+	private boolean[] enabled;
+	private int size;
+
+	// the gene indices ordered by prevId then nextId, valid while indexed
+	private int[] byEnds = new int[0];
+	private boolean indexed;
+
+	// the phenotype of the genes, built with the first network and patched along with the
+	// mutations and crossovers that follow; null when a change could not be followed
+	private Phenotype phenotype;
+	private final Phenotype.Genes genes = new GeneView();
+
+	/**
+	 * Constructs a genome with the specified input and output nodes and no genes.
+	 * @param capacity	the number of connection genes to make room for
+	 */
+	public Genome(long[] inputs, long[] outputs, int capacity) {
+		this(inputs.clone(), outputs.clone(), MIN_CAPACITY, capacity);
+	}
+
+	/**
+	 * The input and output arrays are never modified, so genomes share them.
+	 */
+	private Genome(long[] inputs, long[] outputs, int hiddenCapacity, int capacity) {
+		this.inputs = inputs;
+		this.outputs = outputs;
+
+		hiddens = new long[Math.max(hiddenCapacity, MIN_CAPACITY)];
+
+		capacity = Math.max(capacity, MIN_CAPACITY);
+		innovations = new long[capacity];
+		prevIds = new long[capacity];
+		nextIds = new long[capacity];
+		weights = new double[capacity];
+		biases = new double[capacity];
+		enabled = new boolean[capacity];
+	}
+
+	/**
+	 * Returns the genome of the specified network.
+	 */
+	public static Genome of(Network network) {
+		final long[] inputs = network.getInputNodes().stream().mapToLong(Node::getID).toArray();
+		final long[] outputs = network.getOutputNodes().stream().mapToLong(Node::getID).toArray();
+
+		final Genome genome = new Genome(
+				inputs, outputs, network.getHiddens().size(), network.getConnections().size());
+		genome.fitness = genome.objective = network.getFitness();
+
+		// both maps are sorted, so everything is appended
+		for (long id : network.getHiddens().keySet())
+			genome.putHidden(id);
+
+		for (Connection c : network.getConnections().values())
+			genome.putGene(
+					c.getInnovationNumber(),
+					c.getPrevNode().getID(), c.getNextNode().getID(),
+					c.getWeight(), c.getBias(), c.isEnabled());
+
+		return genome;
+	}
+
+	/**
+	 * Builds the network described by this genome.
+	 */
+	public Network toNetwork() {
+		final Network network = new Network();
+		network.setFitness(fitness);
+
+		final Map<Long, Node> nodes = new HashMap<>();
+		for (long id : inputs)
+			putNode(network, nodes, id, NodeType.INPUT);
+		for (int i = 0; i < hiddenCount; i++)
+			putNode(network, nodes, hiddens[i], NodeType.HIDDEN);
+		for (long id : outputs)
+			putNode(network, nodes, id, NodeType.OUTPUT);
+
+		for (int i = 0; i < size; i++) {
+			final Connection c = new Connection(
+					innovations[i], weights[i], biases[i],
+					nodes.get(prevIds[i]), nodes.get(nextIds[i]));
+			c.setEnabled(enabled[i]);
+			network.putConnection(c);
+		}
+
+		if (phenotype == null)
+			phenotype = Phenotype.of(network);
+		network.setPhenotype(phenotype.copy());
+		return network;
+	}
+
+	private static void putNode(Network network, Map<Long, Node> nodes, long id, NodeType type) {
+		final Node node = new Node.NodeBuilder(type, id).build();
+		nodes.put(id, node);
+		network.putNode(node);
+	}
+
+	/**
+	 * Returns a genome with the same input and output nodes as this one, no hidden nodes
+	 * and no genes, with room for as many genes as this one has.
+	 */
+	public Genome emptyCopy() {
+		return new Genome(inputs, outputs, hiddenCount, size);
+	}
+
+	/**
+	 * Returns a copy of this genome. Modifying either does not affect the other.
+	 */
+	public Genome copy() {
+		final Genome copy = new Genome(inputs, outputs, 0, 0);
+		copy.fitness = fitness;
+		copy.objective = objective;
+
+		copy.hiddens = Arrays.copyOf(hiddens, hiddens.length);
+		copy.hiddenCount = hiddenCount;
+
+		copy.innovations = Arrays.copyOf(innovations, innovations.length);
+		copy.prevIds = Arrays.copyOf(prevIds, prevIds.length);
+		copy.nextIds = Arrays.copyOf(nextIds, nextIds.length);
+		copy.weights = Arrays.copyOf(weights, weights.length);
+		copy.biases = Arrays.copyOf(biases, biases.length);
+		copy.enabled = Arrays.copyOf(enabled, enabled.length);
+		copy.size = size;
+		copy.phenotype = phenotype == null ? null : phenotype.copy();
+
+		return copy;
+	}
+
+
+	//////////////////////////////
+	//nodes
+
+	/**
+	 * Adds the specified hidden node if it is not already present.
+	 */
+	public void putHidden(long id) {
+		if (hiddenCount > 0 && hiddens[hiddenCount - 1] < id) {	//common case, append
+			ensureHiddenCapacity();
+			hiddens[hiddenCount++] = id;
+			return;
+		}
+
+		int i = Arrays.binarySearch(hiddens, 0, hiddenCount, id);
+		if (i >= 0)
+			return;
+		i = -i - 1;
+
+		ensureHiddenCapacity();
+		System.arraycopy(hiddens, i, hiddens, i + 1, hiddenCount - i);
+		hiddens[i] = id;
+		hiddenCount++;
+	}
+
+	/**
+	 * Removes the specified hidden node. Connections to it are not touched.
+	 */
+	public void removeHidden(long id) {
+		final int i = Arrays.binarySearch(hiddens, 0, hiddenCount, id);
+		if (i < 0)
+			return;
+
+		phenotype = null;
+		System.arraycopy(hiddens, i + 1, hiddens, i, hiddenCount - i - 1);
+		hiddenCount--;
+	}
+
+	/**
+	 * Returns the position of the node in the order inputs, hidden nodes, outputs, the
+	 * order of the binary format, or -1 if it is not in the genome.
+	 */
+	public int nodeIndex(long id) {
+		for (int i = 0; i < inputs.length; i++)
+			if (inputs[i] == id) return i;
+		final int hidden = Arrays.binarySearch(hiddens, 0, hiddenCount, id);
+		if (hidden >= 0)
+			return inputs.length + hidden;
+		for (int i = 0; i < outputs.length; i++)
+			if (outputs[i] == id) return inputs.length + hiddenCount + i;
+		return -1;
+	}
+
+	public boolean hasNode(long id) {
+		if (Arrays.binarySearch(hiddens, 0, hiddenCount, id) >= 0)
+			return true;
+		for (long input : inputs)
+			if (input == id) return true;
+		for (long output : outputs)
+			if (output == id) return true;
+		return false;
+	}
+
+	private void ensureHiddenCapacity() {
+		ensureHiddenCapacity(hiddenCount + 1);
+	}
+
+	private void ensureHiddenCapacity(int capacity) {
+		if (capacity > hiddens.length)
+			hiddens = Arrays.copyOf(hiddens, Math.max(capacity, hiddens.length * 2));
+	}
+
+
+	//////////////////////////////
+	//connection genes
+
+	/**
+	 * Returns the index of the gene with the specified innovation number, or a negative
+	 * value if there is none, following {@link Arrays#binarySearch(long[], long)}.
+	 */
+	public int indexOf(long innovation) {
+		return Arrays.binarySearch(innovations, 0, size, innovation);
+	}
+
+	/**
+	 * Puts a connection gene into this genome, replacing any gene with the same
+	 * innovation number. Constant time when the innovation number is the highest so far.
+	 */
+	public void putGene(long innovation, long prevId, long nextId,
+						double weight, double bias, boolean enabled) {
+		phenotype = null;
+		int i;
+		final boolean append = size == 0 || innovations[size - 1] < innovation;
+		if (append) {	//common case
+			ensureCapacity(size + 1);
+			i = size++;
+		}
+		else {
+			i = indexOf(innovation);
+			if (i < 0) {
+				i = -i - 1;
+				ensureCapacity(size + 1);
+				shift(i, 1);
+			}
+			indexed = false;
+		}
+
+		innovations[i] = innovation;
+		prevIds[i] = prevId;
+		nextIds[i] = nextId;
+		weights[i] = weight;
+		biases[i] = bias;
+		this.enabled[i] = enabled;
+
+		// an appended gene moves no other, so it is merely inserted into the index
+		if (append && indexed) {
+			int at = searchEnds(prevId, nextId, size - 1);
+			if (at < 0)
+				at = -at - 1;
+			System.arraycopy(byEnds, at, byEnds, at + 1, size - 1 - at);
+			byEnds[at] = i;
+		}
+	}
+
+	/**
+	 * Removes the gene at the specified index.
+	 */
+	public void removeGene(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("No gene at " + i);
+		phenotype = null;
+		shift(i + 1, -1);
+	}
+
+	/**
+	 * Removes all genes, keeping the nodes and the allocated capacity.
+	 */
+	public void clearGenes() {
+		phenotype = null;
+		size = 0;
+		indexed = false;
+	}
+
+	/**
+	 * Moves the genes from index i on by the specified distance and adjusts the size.
+	 */
+	private void shift(int i, int distance) {
+		final int count = size - i;
+		System.arraycopy(innovations, i, innovations, i + distance, count);
+		System.arraycopy(prevIds, i, prevIds, i + distance, count);
+		System.arraycopy(nextIds, i, nextIds, i + distance, count);
+		System.arraycopy(weights, i, weights, i + distance, count);
+		System.arraycopy(biases, i, biases, i + distance, count);
+		System.arraycopy(enabled, i, enabled, i + distance, count);
+		size += distance;
+		indexed = false;
+	}
+
+	/**
+	 * Makes room for at least the specified number of genes.
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity <= innovations.length)
+			return;
+
+		final int newCapacity = Math.max(capacity, innovations.length * 2);
+		innovations = Arrays.copyOf(innovations, newCapacity);
+		prevIds = Arrays.copyOf(prevIds, newCapacity);
+		nextIds = Arrays.copyOf(nextIds, newCapacity);
+		weights = Arrays.copyOf(weights, newCapacity);
+		biases = Arrays.copyOf(biases, newCapacity);
+		enabled = Arrays.copyOf(enabled, newCapacity);
+		byEnds = Arrays.copyOf(byEnds, newCapacity);
+	}
+
+
+	/**
+	 * Returns true if a gene, enabled or not, connects the specified nodes in this
+	 * direction.
+	 */
+	public boolean isConnected(long prevId, long nextId) {
+		index();
+		return searchEnds(prevId, nextId, size) >= 0;
+	}
+
+	/**
+	 * Returns true if a path of enabled genes leads from one node to the other, or if
+	 * they are the same node, see {@link Network#hasPath(Node, Node)}. Visits every gene
+	 * at most once.
+	 */
+	public boolean hasPath(long from, long to) {
+		index();
+
+		final Set<Long> visited = new HashSet<>();
+		final Deque<Long> stack = new ArrayDeque<>();
+		visited.add(from);
+		stack.push(from);
+
+		while (!stack.isEmpty()) {
+			final long node = stack.pop();
+			if (node == to)
+				return true;
+
+			// the genes leaving the node are adjacent in the index
+			for (int k = -searchEnds(node, Long.MIN_VALUE, size) - 1;
+				 k < size && prevIds[byEnds[k]] == node; k++) {
+				final int i = byEnds[k];
+				if (enabled[i] && visited.add(nextIds[i]))
+					stack.push(nextIds[i]);
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Searches the first count entries of the index for a gene with the specified ends,
+	 * returning its position in the index or a negative value following
+	 * {@link Arrays#binarySearch(long[], long)}. A nextId of Long.MIN_VALUE finds the
+	 * first gene leaving prevId, as no gene has that id.
+	 */
+	private int searchEnds(long prevId, long nextId, int count) {
+		int low = 0, high = count - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int gene = byEnds[mid];
+			final int c = prevIds[gene] != prevId ?
+					Long.compare(prevIds[gene], prevId) :
+					Long.compare(nextIds[gene], nextId);
+			if (c < 0)
+				low = mid + 1;
+			else if (c > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Rebuilds the index of the genes by their ends if a change invalidated it.
+	 */
+	private void index() {
+		if (indexed)
+			return;
+
+		if (byEnds.length < innovations.length)
+			byEnds = new int[innovations.length];
+		for (int i = 0; i < size; i++)
+			byEnds[i] = i;
+		sortByEnds(0, size, new int[size]);
+		indexed = true;
+	}
+
+	/**
+	 * Merge sorts the index between from, inclusive, and to, exclusive.
+	 */
+	private void sortByEnds(int from, int to, int[] buffer) {
+		if (to - from < 2)
+			return;
+
+		final int mid = (from + to) >>> 1;
+		sortByEnds(from, mid, buffer);
+		sortByEnds(mid, to, buffer);
+
+		int i = from, j = mid, n = from;
+		while (i < mid && j < to) {
+			final int a = byEnds[i], b = byEnds[j];
+			final boolean aFirst = prevIds[a] != prevIds[b] ?
+					prevIds[a] < prevIds[b] :
+					nextIds[a] <= nextIds[b];
+			buffer[n++] = aFirst ? byEnds[i++] : byEnds[j++];
+		}
+		while (i < mid)
+			buffer[n++] = byEnds[i++];
+		while (j < to)
+			buffer[n++] = byEnds[j++];
+		System.arraycopy(buffer, from, byEnds, from, to - from);
+	}
+
+
+	//////////////////////////////
+	//NEAT related
+
+	/**
+	 * The "add connection" mutation, see {@link Network#addConnection}.
+	 */
+	public void addConnection(long prevId, long nextId, double weight, double bias,
+							  InnovationRegistry registry) {
+		if (!hasNode(prevId) || !hasNode(nextId))
+			throw new IllegalArgumentException("Node is not in the genome");
+
+		final Phenotype patched = phenotype;
+		final long innovation = registry.connectionInnovation(prevId, nextId);
+		putGene(innovation, prevId, nextId, weight, bias, true);
+		if (patched != null)
+			phenotype = patched.connectionAdded(genes, innovation);
+	}
+
+	/**
+	 * The "add node" mutation, see {@link Network#addNode}.
+	 * @param gene	index of the gene to split
+	 */
+	public void addNode(int gene, InnovationRegistry registry) {
+		if (gene < 0 || gene >= size)
+			throw new IndexOutOfBoundsException("No gene at " + gene);
+
+		final long prevId = prevIds[gene], nextId = nextIds[gene];
+		final double weight = weights[gene], bias = biases[gene];
+
+		InnovationRegistry.Split split = registry.split(prevId, nextId);
+		// this genome already made the same split this generation
+		if (hasNode(split.getNodeID()))
+			split = registry.uniqueSplit();
+
+		final Phenotype patched = phenotype;
+		final long innovation = innovations[gene];
+		enabled[gene] = false;
+		putHidden(split.getNodeID());
+		// keeps identical weight and bias, then weight of 1 and bias of 0
+		putGene(split.getInInnovation(), prevId, split.getNodeID(), weight, bias, true);
+		putGene(split.getOutInnovation(), split.getNodeID(), nextId, 1, 0, true);
+		if (patched != null)
+			phenotype = patched.nodeAdded(
+					genes, innovation, split.getInInnovation(), split.getOutInnovation());
+	}
+
+
+	/**
+	 * Crosses the two parents over into the child, replacing all of its nodes and genes.
+	 * This is the same crossover as {@link Network#reproduceWith(Network, SplittableRandom)}:
+	 * a matching gene is taken from a random parent, disjoint and excess genes from both,
+	 * and the same random stream gives the same child.
+	 * <p>
+	 * Runs in a single merge over the sorted genes of both parents. Nothing is allocated
+	 * once the child has grown to the size of its parents, so children can be recycled
+	 * from one generation to the next.
+	 * @throws IllegalArgumentException	if the genomes have different input or output nodes
+	 */
+	public static void crossover(Genome a, Genome b, Genome child, SplittableRandom random) {
+		if (!a.hasSameEnds(b) || !a.hasSameEnds(child))
+			throw new IllegalArgumentException("Genomes have different inputs or outputs");
+
+		// hidden nodes, union of both parents
+		child.hiddenCount = 0;
+		child.ensureHiddenCapacity(a.hiddenCount + b.hiddenCount);
+		int i = 0, j = 0, n = 0;
+		while (i < a.hiddenCount && j < b.hiddenCount) {
+			final long ha = a.hiddens[i], hb = b.hiddens[j];
+			if (ha <= hb) i++;
+			if (hb <= ha) j++;
+			child.hiddens[n++] = Math.min(ha, hb);
+		}
+		while (i < a.hiddenCount)
+			child.hiddens[n++] = a.hiddens[i++];
+		while (j < b.hiddenCount)
+			child.hiddens[n++] = b.hiddens[j++];
+		child.hiddenCount = n;
+
+		// connection genes
+		child.size = 0;
+		child.ensureCapacity(a.size + b.size);
+		i = 0; j = 0; n = 0;
+		while (i < a.size && j < b.size) {
+			final long ia = a.innovations[i], ib = b.innovations[j];
+
+			if (ia == ib) {	// add matching genes randomly
+				if (random.nextBoolean())
+					copyGene(a, i, child, n++);
+				else
+					copyGene(b, j, child, n++);
+				i++; j++;
+			}
+			else if (ia < ib)	// add all disjoint genes
+				copyGene(a, i++, child, n++);
+			else
+				copyGene(b, j++, child, n++);
+		}
+		// add all excess genes
+		while (i < a.size)
+			copyGene(a, i++, child, n++);
+		while (j < b.size)
+			copyGene(b, j++, child, n++);
+		child.size = n;
+		child.indexed = false;
+
+		child.fitness = child.objective = 0;
+
+		child.phenotype = inheritedPhenotype(a, child);
+		if (child.phenotype == null)
+			child.phenotype = inheritedPhenotype(b, child);
+	}
+
+	/**
+	 * Returns the phenotype of the parent patched into that of the child, or null if the
+	 * child does not take after the parent closely enough: every gene of the parent has to
+	 * be in the child, enabled or not alike, and the genes of the child that are not in
+	 * the parent have to be younger than those that are.
+	 */
+	private static Phenotype inheritedPhenotype(Genome parent, Genome child) {
+		if (parent.phenotype == null || child.size < parent.size)
+			return null;
+		for (int i = 0; i < parent.size; i++)
+			if (child.innovations[i] != parent.innovations[i] ||
+					child.prevIds[i] != parent.prevIds[i] || child.nextIds[i] != parent.nextIds[i] ||
+					child.enabled[i] != parent.enabled[i])
+				return null;
+
+		Phenotype p = parent.phenotype.copy();
+		for (int i = 0; i < parent.size; i++)
+			if (child.weights[i] != parent.weights[i] &&
+					!p.weightChanged(child.genes, child.innovations[i], parent.weights[i]))
+				return null;
+		// the genes from the other parent, as if they were added in innovation order
+		for (int i = parent.size; i < child.size && p != null; i++)
+			p = p.connectionAdded(child.genes, child.innovations[i]);
+		return p;
+	}
+
+	private static void copyGene(Genome from, int i, Genome to, int j) {
+		to.innovations[j] = from.innovations[i];
+		to.prevIds[j] = from.prevIds[i];
+		to.nextIds[j] = from.nextIds[i];
+		to.weights[j] = from.weights[i];
+		to.biases[j] = from.biases[i];
+		to.enabled[j] = from.enabled[i];
+	}
+
+
+	/**
+	 * The genes as the phenotype sees them when it is patched.
+	 */
+	private class GeneView implements Phenotype.Genes {
+		@Override
+		public long prevOf(long innovation) { return prevIds[indexOf(innovation)]; }
+		@Override
+		public long nextOf(long innovation) { return nextIds[indexOf(innovation)]; }
+		@Override
+		public double weightOf(long innovation) { return weights[indexOf(innovation)]; }
+		@Override
+		public boolean isEnabled(long innovation) { return enabled[indexOf(innovation)]; }
+
+		@Override
+		public boolean isInput(long id) {
+			for (long input : inputs)
+				if (input == id) return true;
+			return false;
+		}
+
+		@Override
+		public void forEachNext(long id, Phenotype.NextVisitor visitor) {
+			index();
+			for (int k = -searchEnds(id, Long.MIN_VALUE, size) - 1;
+				 k < size && prevIds[byEnds[k]] == id; k++) {
+				final int i = byEnds[k];
+				if (enabled[i])
+					visitor.visit(innovations[i], nextIds[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the phenotype kept for the next network built, or null if it is built
+	 * from scratch then.
+	 */
+	Phenotype getPhenotype() { return phenotype; }
+
+
+	//////////////////////////////
+	//basic getters and setters
+
+	public int getInputCount() { return inputs.length; }
+	public long getInput(int i) { return inputs[i]; }
+	public int getOutputCount() { return outputs.length; }
+	public long getOutput(int i) { return outputs[i]; }
+	public int getHiddenCount() { return hiddenCount; }
+	public long getHidden(int i) { return hiddens[i]; }
+
+	/**
+	 * Returns the number of connection genes.
+	 */
+	public int size() { return size; }
+
+	public long getInnovation(int i) { return innovations[i]; }
+	public long getPrevId(int i) { return prevIds[i]; }
+	public long getNextId(int i) { return nextIds[i]; }
+	public double getWeight(int i) { return weights[i]; }
+
+	/**
+	 * Sets the weight of a gene, patching the phenotype.
+	 */
+	public void setWeight(int i, double weight) {
+		final double oldWeight = weights[i];
+		weights[i] = weight;
+		if (phenotype != null && !phenotype.weightChanged(genes, innovations[i], oldWeight))
+			phenotype = null;
+	}
+
+	public double getBias(int i) { return biases[i]; }
+	public void setBias(int i, double bias) { biases[i] = bias; }
+	public boolean isEnabled(int i) { return enabled[i]; }
+
+	public void setEnabled(int i, boolean enabled) {
+		if (this.enabled[i] != enabled)
+			phenotype = null;
+		this.enabled[i] = enabled;
+	}
+
+
+	public double getFitness() { return fitness; }
+
+	/**
+	 * Returns the part of the fitness that measures how well the task is done, see
+	 * {@link ga.Evaluator#score(Network)}.
+	 */
+	public double getObjective() { return objective; }
+
+	/**
+	 * Sets a fitness that is all objective.
+	 */
+	public void setFitness(double fitness) { setFitness(fitness, fitness); }
+
+	public void setFitness(double fitness, double objective) {
+		this.fitness = fitness;
+		this.objective = objective;
+	}
+
+	/**
+	 * Returns true if both genomes have the same input and output nodes, in order.
+	 */
+	public boolean hasSameEnds(Genome other) {
+		return Arrays.equals(inputs, other.inputs) && Arrays.equals(outputs, other.outputs);
+	}
+}
@@ -0,0 +1,199 @@
+package network;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out innovation numbers and hidden node IDs for structural mutations.
+ * <p>
+ * Within a generation, the same mutation made by several genomes - connecting the same
+ * pair of nodes, or splitting the connection between the same pair of nodes - receives
+ * the same numbers, so the resulting genes line up during crossover. Call
+ * {@link #nextGeneration()} between generations; numbers are never reused afterwards.
+ * <p>
+ * Lookups of known mutations do not lock. A new mutation made by two threads at once
+ * may consume a number that is then discarded, which only leaves a gap.
+ */
+public class InnovationRegistry {
+	private static final InnovationRegistry DEFAULT = new InnovationRegistry();
+
+	/**
+	 * Returns the registry used by mutations that are not given one.
+	 */
+	public static InnovationRegistry getDefault() { return DEFAULT; }
+
+	public enum MutationType { ADD_CONNECTION, ADD_NODE }
+
+	/**
+	 * The numbers assigned to an "add node" mutation.
+	 */
+	public static class Split {
+		private final long nodeID, inInnovation, outInnovation;
+
+		private Split(long nodeID, long inInnovation, long outInnovation) {
+			this.nodeID = nodeID;
+			this.inInnovation = inInnovation;
+			this.outInnovation = outInnovation;
+		}
+
+		/**
+		 * ID of the new hidden node.
+		 */
+		public long getNodeID() { return nodeID; }
+		/**
+		 * Innovation number of the connection into the new node.
+		 */
+		public long getInInnovation() { return inInnovation; }
+		/**
+		 * Innovation number of the connection out of the new node.
+		 */
+		public long getOutInnovation() { return outInnovation; }
+	}
+
+	private static class Key {
+		private final long from, to;
+		private final MutationType type;
+
+		private Key(long from, long to, MutationType type) {
+			this.from = from;
+			this.to = to;
+			this.type = type;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key &&
+					from == ((Key) o).from &&
+					to == ((Key) o).to &&
+					type == ((Key) o).type;
+		}
+
+		@Override
+		public int hashCode() {
+			return (Long.hashCode(from) * 31 + Long.hashCode(to)) * 31 + type.ordinal();
+		}
+	}
+
+	private final AtomicLong nextInnovation = new AtomicLong();
+	private final AtomicLong nextNodeID = new AtomicLong();
+
+	/**
+	 * Mutations seen in the current generation.
+	 */
+	private static class Generation {
+		private final Map<Key, Long> connections = new ConcurrentHashMap<>();
+		private final Map<Key, Split> splits = new ConcurrentHashMap<>();
+	}
+
+	private volatile Generation generation = new Generation();
+
+	/**
+	 * Returns the innovation number for a connection between the specified nodes.
+	 */
+	public long connectionInnovation(Node from, Node to) {
+		return connectionInnovation(from.getID(), to.getID());
+	}
+
+	/**
+	 * Returns the innovation number for a connection between the nodes with the
+	 * specified IDs.
+	 */
+	public long connectionInnovation(long fromID, long toID) {
+		final Key key = new Key(fromID, toID, MutationType.ADD_CONNECTION);
+		final Map<Key, Long> current = generation.connections;
+
+		Long innovation = current.get(key);
+		if (innovation == null) {
+			final Long candidate = nextInnovation.getAndIncrement();
+			innovation = current.putIfAbsent(key, candidate);
+			if (innovation == null)
+				innovation = candidate;
+		}
+
+		return innovation;
+	}
+
+	/**
+	 * Returns the node ID and innovation numbers for splitting the specified connection.
+	 */
+	public Split split(Connection connection) {
+		return split(connection.getPrevNode().getID(), connection.getNextNode().getID());
+	}
+
+	/**
+	 * Returns the node ID and innovation numbers for splitting a connection between the
+	 * nodes with the specified IDs.
+	 */
+	public Split split(long fromID, long toID) {
+		final Key key = new Key(fromID, toID, MutationType.ADD_NODE);
+		final Map<Key, Split> current = generation.splits;
+
+		Split split = current.get(key);
+		if (split == null) {
+			final Split candidate = uniqueSplit();
+			split = current.putIfAbsent(key, candidate);
+			if (split == null)
+				split = candidate;
+		}
+
+		return split;
+	}
+
+	/**
+	 * Returns fresh numbers for a split that is not shared with any other genome.
+	 */
+	public Split uniqueSplit() {
+		final long in = nextInnovation.getAndAdd(2);
+		return new Split(nextNodeID.getAndIncrement(), in, in + 1);
+	}
+
+	/**
+	 * Forgets the mutations of the current generation. Identical mutations made after
+	 * this receive new numbers.
+	 */
+	public void nextGeneration() {
+		generation = new Generation();
+	}
+
+	/**
+	 * Makes sure numbers handed out from now on do not collide with the node IDs and
+	 * innovation numbers already used by the specified network, for example one read
+	 * from file.
+	 */
+	public void reserve(Network network) {
+		long maxNode = -1, maxInnovation = -1;
+
+		for (Node n : network.getInputNodes())
+			maxNode = Math.max(maxNode, n.getID());
+		for (Node n : network.getOutputNodes())
+			maxNode = Math.max(maxNode, n.getID());
+		for (long id : network.getHiddens().keySet())
+			maxNode = Math.max(maxNode, id);
+		for (long innovation : network.getConnections().keySet())
+			maxInnovation = Math.max(maxInnovation, innovation);
+
+		final long node = maxNode + 1, innovation = maxInnovation + 1;
+		nextNodeID.accumulateAndGet(node, Math::max);
+		nextInnovation.accumulateAndGet(innovation, Math::max);
+	}
+
+	/**
+	 * Same as {@link #reserve(Network)} for a genome.
+	 */
+	public void reserve(Genome genome) {
+		long maxNode = -1, maxInnovation = -1;
+
+		for (int i = 0; i < genome.getInputCount(); i++)
+			maxNode = Math.max(maxNode, genome.getInput(i));
+		for (int i = 0; i < genome.getOutputCount(); i++)
+			maxNode = Math.max(maxNode, genome.getOutput(i));
+		for (int i = 0; i < genome.getHiddenCount(); i++)
+			maxNode = Math.max(maxNode, genome.getHidden(i));
+		for (int i = 0; i < genome.size(); i++)
+			maxInnovation = Math.max(maxInnovation, genome.getInnovation(i));
+
+		nextNodeID.accumulateAndGet(maxNode + 1, Math::max);
+		nextInnovation.accumulateAndGet(maxInnovation + 1, Math::max);
+	}
+}
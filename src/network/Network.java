@@ -21,6 +21,56 @@ public class Network {
 
 	private double fitness;
 
+	// patched along with the mutations of this network, built anew when it cannot be;
+	// guarded by this
+	private Phenotype phenotype;
+
+	// the connections as the phenotype sees them when it is patched
+	private final Phenotype.Genes genes = new Phenotype.Genes() {
+		@Override
+		public long prevOf(long innovation) {
+			return connections.get(innovation).getPrevNode().getID();
+		}
+
+		@Override
+		public long nextOf(long innovation) {
+			return connections.get(innovation).getNextNode().getID();
+		}
+
+		@Override
+		public double weightOf(long innovation) {
+			return connections.get(innovation).getWeight();
+		}
+
+		@Override
+		public boolean isEnabled(long innovation) {
+			return connections.get(innovation).isEnabled();
+		}
+
+		@Override
+		public boolean isInput(long id) {
+			for (Node n : inputNodes)
+				if (n.getID() == id)
+					return true;
+			return false;
+		}
+
+		@Override
+		public void forEachNext(long id, Phenotype.NextVisitor visitor) {
+			Node node = hiddens.get(id);
+			for (int i = 0; node == null && i < inputNodes.size(); i++)
+				if (inputNodes.get(i).getID() == id)
+					node = inputNodes.get(i);
+			for (int i = 0; node == null && i < outputNodes.size(); i++)
+				if (outputNodes.get(i).getID() == id)
+					node = outputNodes.get(i);
+
+			for (Connection c : node.getNextConnections())
+				if (c.isEnabled())
+					visitor.visit(c.getInnovationNumber(), c.getNextNode().getID());
+		}
+	};
+
 	public synchronized long getNextNodeID() {
 		return global_id++;
 	}
@@ -29,21 +79,36 @@ public class Network {
 	/**
 	 * Given a list of doubles as input values for the input nodes, computes through the
 	 * network and returns a list of doubles containing the results from the output nodes.
+	 * Recurrent connections carry the values of the previous call, until {@link #reset()};
+	 * see {@link Phenotype} for the details. A change to the structure of the network
+	 * resets it as well.
 	 */
-	public List<Double> compute(List<Double> inputs) {
-		for (int i = 0; i < inputNodes.size(); i++) {
-			Node node = inputNodes.get(i);
-			double value =
-					i < inputs.size() ? inputs.get(i) : 0;
+	public synchronized List<Double> compute(List<Double> inputs) {
+		if (phenotype == null)
+			phenotype = Phenotype.of(this);
+		return phenotype.compute(inputs);
+	}
 
-			node.write(value);
-		}
-		
-		List<Double> outputs = new ArrayList<>();
-		for (Node out : outputNodes)
-			outputs.add(out.read());
+	/**
+	 * Returns a phenotype of this network for the caller alone, with nothing remembered.
+	 * <p>
+	 * The network keeps its phenotype from one call to the next, and patches it as it is
+	 * mutated by {@link #addConnection}, {@link #addNode} and {@link #setWeight}, so a
+	 * mutated offspring does not have to build its phenotype from scratch. Changes made to
+	 * the connections directly are not seen.
+	 */
+	public synchronized Phenotype getPhenotype() {
+		if (phenotype == null)
+			phenotype = Phenotype.of(this);
+		return phenotype.copy();
+	}
 
-		return outputs;
+	/**
+	 * Forgets the values carried by recurrent connections, as at the start of an episode.
+	 */
+	public synchronized void reset() {
+		if (phenotype != null)
+			phenotype.reset();
 	}
 
 
@@ -78,6 +143,13 @@ public class Network {
 	public boolean putNode(Node node) {
 		NodeType nodeType = node.getNodeType();
 
+		//never hand out an ID that is already taken
+		synchronized (this) {
+			if (node.getID() >= global_id)
+				global_id = node.getID() + 1;
+			phenotype = null;
+		}
+
 		if (nodeType == NodeType.INPUT && !inputNodes.contains(node))	//don't add duplicates
 			return inputNodes.add(node);
 
@@ -104,22 +176,23 @@ public class Network {
 		for (int i = 0; i < endNodes.length; i++) {
 			Node node = endNodes[i];
 
-			boolean kept;
 			//try add the node to network;
 			// if succeed, keep existing reference, otherwise find the reference in the network.
-			endNodes[i] = (kept = putNode(node)) ? node : findNode(node);
+			endNodes[i] = putNode(node) ? node : findNode(node);
 
-			if (!kept)
+			if (endNodes[i] != node)
 				nodeChanged = true;
 		}
 
 		if (nodeChanged) {	//need to modify connection
+			final Connection original = connection;
 			connection =
 					new Connection(
-							connection.getInnovationNumber(),
-							connection.getWeight(), connection.getBias(),
+							original.getInnovationNumber(),
+							original.getWeight(), original.getBias(),
 							endNodes[0], endNodes[1]
 					);
+			connection.setEnabled(original.isEnabled());
 		}
 
 
@@ -145,6 +218,15 @@ public class Network {
 	 * This is the "add connection" mutation.
 	 */
 	public void addConnection(Node from, Node to, double weight, double bias) {
+		addConnection(from, to, weight, bias, InnovationRegistry.getDefault());
+	}
+
+	/**
+	 * Same as {@link #addConnection(Node, Node, double, double)}, taking the innovation
+	 * number from the specified registry.
+	 */
+	public void addConnection(Node from, Node to, double weight, double bias,
+							  InnovationRegistry registry) {
 		from = findNode(from);
 		to = findNode(to);
 
@@ -152,9 +234,12 @@ public class Network {
 			throw new IllegalArgumentException("Node is not in the network");
 
 		Connection c =
-				new Connection(Connection.getNextGlobalInnovationNum(), weight, bias, from, to);
+				new Connection(registry.connectionInnovation(from, to), weight, bias, from, to);
 
+		final Phenotype patched = takePhenotype();
 		putConnection(c);
+		if (patched != null)
+			setPhenotype(patched.connectionAdded(genes, c.getInnovationNumber()));
 	}
 
 	/**
@@ -163,17 +248,31 @@ public class Network {
 	 * @param connection	The Connection to place the new Node on
 	 */
 	public void addNode(Connection connection) {
+		addNode(connection, InnovationRegistry.getDefault());
+	}
+
+	/**
+	 * Same as {@link #addNode(Connection)}, taking the node ID and innovation numbers
+	 * from the specified registry.
+	 */
+	public void addNode(Connection connection, InnovationRegistry registry) {
 		if (!connections.containsKey(connection.getInnovationNumber()))
 			throw new IllegalArgumentException("Connection is not in the network");
 
+		InnovationRegistry.Split split = registry.split(connection);
+		// this network already made the same split this generation
+		if (hiddens.containsKey(split.getNodeID()))
+			split = registry.uniqueSplit();
+
+		final Phenotype patched = takePhenotype();
 		connection.setEnabled(false);
 
-		final Node newNode = new Node.NodeBuilder(NodeType.HIDDEN, getNextNodeID()).build();
+		final Node newNode = new Node.NodeBuilder(NodeType.HIDDEN, split.getNodeID()).build();
 
 		// keeps identical weight and bias
 		final Connection connection1 =
 				new Connection(
-						Connection.getNextGlobalInnovationNum(),
+						split.getInInnovation(),
 						connection.getWeight(), connection.getBias(),
 						connection.getPrevNode(),
 						newNode
@@ -181,28 +280,75 @@ public class Network {
 		// weight of 1 and bias of 0
 		final Connection connection2 =
 				new Connection(
-						Connection.getNextGlobalInnovationNum(),
+						split.getOutInnovation(),
 						1, 0,
 						newNode,
 						connection.getNextNode()
 				);
 
-		newNode.addInput(connection1);
-		newNode.addOutput(connection2);
+		// wires up both ends of each new connection
+		putNode(newNode);
+		putConnection(connection1);
+		putConnection(connection2);
 
-		getHiddens().put(newNode.getID(), newNode);
-		getConnections().put(connection1.getInnovationNumber(), connection1);
-		getConnections().put(connection2.getInnovationNumber(), connection2);
+		if (patched != null)
+			setPhenotype(patched.nodeAdded(genes, connection.getInnovationNumber(),
+					split.getInInnovation(), split.getOutInnovation()));
+	}
+
+	/**
+	 * Sets the weight of a connection of this network. Unlike
+	 * {@link Connection#setWeight(double)}, this keeps the phenotype of the network up to
+	 * date.
+	 */
+	public void setWeight(Connection connection, double weight) {
+		final double oldWeight = connection.getWeight();
+		connection.setWeight(weight);
+
+		synchronized (this) {
+			if (phenotype != null && !phenotype.weightChanged(
+					genes, connection.getInnovationNumber(), oldWeight))
+				phenotype = null;
+		}
+	}
+
+	private synchronized Phenotype takePhenotype() {
+		final Phenotype p = phenotype;
+		phenotype = null;
+		return p;
+	}
+
+	synchronized void setPhenotype(Phenotype phenotype) {
+		this.phenotype = phenotype;
 	}
 
 
 	/**
-	 * Performs a crossover with the specified Network and returns the offspring.
+	 * Performs a crossover with the specified Network and returns the offspring. Use
+	 * {@link #reproduceWith(Network, SplittableRandom)} for reproducible offspring.
 	 */
 	public Network reproduceWith(Network other) {
+		return reproduceWith(other, new SplittableRandom());
+	}
+
+	/**
+	 * Same as {@link #reproduceWith(Network)}, choosing between matching genes with the
+	 * specified random stream. The offspring shares no nodes or connections with its parents,
+	 * so it may be mutated while the parents are still in use.
+	 * <p>
+	 * Genes from different parents may form a cycle together, which makes the youngest
+	 * gene of the cycle recurrent.
+	 */
+	public Network reproduceWith(Network other, SplittableRandom random) {
 
 		final Network child = new Network();
 
+		//keep the order of inputs and outputs, even the unconnected ones
+		for (Node n : inputNodes)
+			child.putNode(new Node.NodeBuilder(NodeType.INPUT, n.getID()).build());
+		for (Node n : outputNodes)
+			child.putNode(new Node.NodeBuilder(NodeType.OUTPUT, n.getID()).build());
+
 //		final Network fittest;
 //		// if of equal fitness, choose a random one
 //		if (this.getFitness() == other.getFitness())
@@ -210,51 +356,135 @@ public class Network {
 //		else
 //			fittest = this.getFitness() > other.getFitness() ? this : other;
 
-		final Map<Long, Connection> connectsThis = getConnections();
-		final Map<Long, Connection> connectsOther = other.getConnections();
-
+		// both maps iterate in innovation order, merge them in one pass
+		final Iterator<Connection> iterThis = connections.values().iterator();
+		final Iterator<Connection> iterOther = other.connections.values().iterator();
 
-		final List<Long> innovNumsThis = new ArrayList<>(connectsThis.keySet());
-		final List<Long> innovNumsOther = new ArrayList<>(connectsOther.keySet());
+		Connection cThis = iterThis.hasNext() ? iterThis.next() : null;
+		Connection cOther = iterOther.hasNext() ? iterOther.next() : null;
 
-		int iThis = 0, iOther = 0;
-		for ( ; iThis < innovNumsThis.size() && iOther < innovNumsOther.size(); ) {
-			final long innovNumThis = innovNumsThis.get(iThis);
-			final long innovNumOther = innovNumsOther.get(iOther);
+		while (cThis != null && cOther != null) {
+			final long innovNumThis = cThis.getInnovationNumber();
+			final long innovNumOther = cOther.getInnovationNumber();
 
 			// add matching genes randomly
 			if (innovNumThis == innovNumOther) {
-				child.putConnection(
-						randomBoolean() ? connectsThis.get(innovNumThis) :
-								connectsOther.get(innovNumOther)
-				);
-				iThis++; iOther++;
+				child.inherit(random.nextBoolean() ? cThis : cOther);
+				cThis = iterThis.hasNext() ? iterThis.next() : null;
+				cOther = iterOther.hasNext() ? iterOther.next() : null;
 			}
-			else {	// add all disjoint genes
-				final Connection c;
-				if (innovNumThis < innovNumOther) {
-					c = connectsThis.get(innovNumThis); iThis++;
-				}
-				else {
-					c = connectsOther.get(innovNumOther); iOther++;
-				}
-
-				child.putConnection(c);
+			else if (innovNumThis < innovNumOther) {	// add all disjoint genes
+				child.inherit(cThis);
+				cThis = iterThis.hasNext() ? iterThis.next() : null;
+			}
+			else {
+				child.inherit(cOther);
+				cOther = iterOther.hasNext() ? iterOther.next() : null;
 			}
 		}
 
 		// add all excess genes
-		for ( ; iThis < innovNumsThis.size(); iThis++)
-			child.putConnection(connectsThis.get(innovNumsThis.get(iThis)));
-		for ( ; iOther < innovNumsOther.size(); iOther++)
-			child.putConnection(connectsOther.get(innovNumsOther.get(iOther)));
+		for ( ; cThis != null; cThis = iterThis.hasNext() ? iterThis.next() : null)
+			child.inherit(cThis);
+		for ( ; cOther != null; cOther = iterOther.hasNext() ? iterOther.next() : null)
+			child.inherit(cOther);
+
+		// a child that takes after a parent exactly, as of a parent crossed with itself,
+		// starts from the phenotype of that parent
+		final Phenotype inherited;
+		synchronized (this) {
+			inherited = phenotype;
+		}
+		if (inherited != null && (other == this || child.structuralHash() == structuralHash()))
+			child.setPhenotype(inherited.copy());
 
 		return child;
 	}
 
-	private static final Random RANDOM = new Random();
-	private static boolean randomBoolean() {
-		return RANDOM.nextBoolean();
+	private void inherit(Connection connection) {
+		putConnection(copyOf(connection));
+	}
+
+	/**
+	 * Returns a copy of the specified Connection between the nodes of this network with
+	 * the same IDs, adding missing hidden nodes.
+	 */
+	private Connection copyOf(Connection connection) {
+		final Connection copy =
+				new Connection(
+						connection.getInnovationNumber(),
+						connection.getWeight(), connection.getBias(),
+						nodeOf(connection.getPrevNode()),
+						nodeOf(connection.getNextNode())
+				);
+		copy.setEnabled(connection.isEnabled());
+		return copy;
+	}
+
+	private Node nodeOf(Node node) {
+		Node n = findNode(node);
+		if (n == null) {
+			n = new Node.NodeBuilder(node.getNodeType(), node.getID()).build();
+			putNode(n);
+		}
+		return n;
+	}
+
+	/**
+	 * Returns true if a path of enabled connections leads from one Node to the other, or
+	 * if they are the same Node.
+	 */
+	public static boolean hasPath(Node from, Node to) {
+		final Set<Node> visited = new HashSet<>();
+		final Deque<Node> stack = new ArrayDeque<>();
+		stack.push(from);
+
+		while (!stack.isEmpty()) {
+			final Node n = stack.pop();
+			if (n == to)
+				return true;
+
+			for (Connection c : n.getNextConnections())
+				if (c.isEnabled() && visited.add(c.getNextNode()))
+					stack.push(c.getNextNode());
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns a hash of what determines the behaviour of this network: the IDs of the
+	 * input and output nodes in order, and the ends and weight of every enabled connection
+	 * in innovation order. Biases are left out as they do not affect the output.
+	 * Networks that compute the same way have the same hash, whatever their fitness,
+	 * disabled connections or unconnected hidden nodes.
+	 */
+	public long structuralHash() {
+		long hash = mix(0x9e3779b97f4a7c15L + inputNodes.size());
+		for (Node n : inputNodes)
+			hash = mix(hash ^ n.getID());
+		hash = mix(hash ^ outputNodes.size());
+		for (Node n : outputNodes)
+			hash = mix(hash ^ n.getID());
+
+		for (Connection c : connections.values()) {
+			if (!c.isEnabled())
+				continue;
+			hash = mix(hash ^ c.getPrevNode().getID());
+			hash = mix(hash ^ c.getNextNode().getID());
+			hash = mix(hash ^ Double.doubleToLongBits(c.getWeight()));
+		}
+
+		return hash;
+	}
+
+	/**
+	 * The finalizer of SplitMix64, every input bit affects every output bit.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
 	}
 
 
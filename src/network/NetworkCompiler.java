@@ -0,0 +1,357 @@
+package network;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles networks to classes of their own, for networks that compute for long, such as
+ * champions driving without a tick limit.
+ * <p>
+ * The generated compute method is straight-line code over the {@link Phenotype} of the
+ * network: every input is read into a local once, every node is computed into a local
+ * with its weights as constants, and every output is written once. It has no loops and
+ * touches no arrays but the inputs and outputs, so the JIT can keep small networks
+ * entirely in registers. The values remembered for recurrent connections are fields, so
+ * like a phenotype, a compiled network is used by one thread at a time.
+ * <p>
+ * The classes are hidden classes, unloaded once unused. They are cached by
+ * {@link Network#structuralHash()}, so networks that compute the same way are compiled
+ * once; each call returns a new instance. Networks too large for the JIT to compile a
+ * method of are not compiled; their phenotype is returned instead.
+ */
+public class NetworkCompiler {
+	private static final int CACHE_SIZE = 1024;
+	/** HotSpot does not compile methods of more bytecode than this. */
+	private static final int MAX_CODE_LENGTH = 8000;
+
+	private static final String CLASS_NAME = "network/CompiledNetwork";
+	private static final String INTERFACE_NAME = "network/NetworkFunction";
+
+	// guarded by itself
+	private static final Map<Long, Class<?>> CACHE =
+			new LinkedHashMap<Long, Class<?>>(CACHE_SIZE, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, Class<?>> eldest) {
+					return size() > CACHE_SIZE;
+				}
+			};
+
+	private NetworkCompiler() {}
+
+
+	/**
+	 * Returns the compiled network, or its phenotype if it is too large to compile.
+	 */
+	public static NetworkFunction compile(Network network) {
+		final long key = network.structuralHash();
+		Class<?> compiled;
+		synchronized (CACHE) {
+			compiled = CACHE.get(key);
+		}
+
+		try {
+			if (compiled == null) {
+				final Phenotype phenotype = network.getPhenotype();
+				final byte[] bytes = classOf(phenotype);
+				if (bytes == null)
+					return phenotype;
+
+				compiled = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+				synchronized (CACHE) {
+					final Class<?> other = CACHE.putIfAbsent(key, compiled);
+					if (other != null)
+						compiled = other;
+				}
+			}
+
+			return (NetworkFunction) compiled.getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Failed to load compiled network", e);
+		}
+	}
+
+
+	/**
+	 * Returns the class file of the compiled phenotype, or null if its compute method
+	 * would be too long.
+	 */
+	private static byte[] classOf(Phenotype p) {
+		final ConstantPool pool = new ConstantPool();
+		final int thisClass = pool.classRef(CLASS_NAME);
+		final int superClass = pool.classRef("java/lang/Object");
+		final int interfaceClass = pool.classRef(INTERFACE_NAME);
+		final int objectInit = pool.methodRef(superClass, "<init>", "()V");
+		final int init = pool.utf8("<init>");
+		final int initType = pool.utf8("()V");
+		final int compute = pool.utf8("compute");
+		final int computeType = pool.utf8("([D[D)V");
+		final int reset = pool.utf8("reset");
+		final int code = pool.utf8("Code");
+
+		// the value remembered for recurrent connection source k is the field sk
+		final int[] fieldNames = new int[p.rememberedSlots.length];
+		final int[] fields = new int[p.rememberedSlots.length];
+		for (int k = 0; k < fields.length; k++) {
+			fieldNames[k] = pool.utf8("s" + k);
+			fields[k] = pool.fieldRef(thisClass, "s" + k, "D");
+		}
+		final int fieldType = pool.utf8("D");
+
+		// this, super()
+		final Bytes initCode = new Bytes();
+		initCode.u1(ALOAD_0);
+		initCode.u1(INVOKESPECIAL);
+		initCode.u2(objectInit);
+		initCode.u1(RETURN);
+
+		final Bytes resetCode = new Bytes();
+		for (int field : fields) {
+			resetCode.u1(ALOAD_0);
+			resetCode.u1(DCONST_0);
+			resetCode.u1(PUTFIELD);
+			resetCode.u2(field);
+		}
+		resetCode.u1(RETURN);
+
+		// the value of slot s is kept in the local 3 + 2s, after this, inputs and outputs
+		final Bytes computeCode = new Bytes();
+		for (int i = 0; i < p.inputIndices.length; i++) {
+			computeCode.u1(ALOAD_1);
+			pushInt(computeCode, p.inputIndices[i]);
+			computeCode.u1(DALOAD);
+			local(computeCode, DSTORE, i);
+		}
+
+		for (int j = 0; j < p.constants.length; j++) {
+			// summed in the order of Phenotype.compute
+			boolean first = true;
+			if (p.constants[j] != 0) {
+				pushDouble(computeCode, pool, p.constants[j]);
+				first = false;
+			}
+			for (int e = p.edgeStarts[j]; e < p.edgeStarts[j + 1]; e++) {
+				pushDouble(computeCode, pool, p.weights[e]);
+				if (p.sources[e] < p.firstState)
+					local(computeCode, DLOAD, p.sources[e]);
+				else {
+					computeCode.u1(ALOAD_0);
+					computeCode.u1(GETFIELD);
+					computeCode.u2(fields[p.sources[e] - p.firstState]);
+				}
+				computeCode.u1(DMUL);
+				if (!first)
+					computeCode.u1(DADD);
+				first = false;
+			}
+			if (first)	// a recurrent source computed from constants alone
+				pushDouble(computeCode, pool, p.constants[j]);
+			if (p.fanIns[j] != 1) {
+				pushDouble(computeCode, pool, p.fanIns[j]);
+				computeCode.u1(DDIV);
+			}
+			local(computeCode, DSTORE, p.firstComputed + j);
+
+			if (computeCode.size() > MAX_CODE_LENGTH)
+				return null;
+		}
+
+		for (int i = 0; i < p.outputSlots.length; i++) {
+			computeCode.u1(ALOAD_2);
+			pushInt(computeCode, i);
+			if (p.outputSlots[i] < 0)
+				pushDouble(computeCode, pool, p.outputConstants[i]);
+			else
+				local(computeCode, DLOAD, p.outputSlots[i]);
+			computeCode.u1(DASTORE);
+		}
+
+		for (int k = 0; k < fields.length; k++) {
+			computeCode.u1(ALOAD_0);
+			local(computeCode, DLOAD, p.rememberedSlots[k]);
+			computeCode.u1(PUTFIELD);
+			computeCode.u2(fields[k]);
+		}
+		computeCode.u1(RETURN);
+
+		if (computeCode.size() > MAX_CODE_LENGTH || resetCode.size() > MAX_CODE_LENGTH)
+			return null;
+
+		final Bytes c = new Bytes();
+		c.u4(0xCAFEBABE);
+		c.u2(0);
+		c.u2(61);	// Java 17; straight-line code needs no stack map frames
+		pool.writeTo(c);
+		c.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		c.u2(thisClass);
+		c.u2(superClass);
+		c.u2(1);
+		c.u2(interfaceClass);
+		c.u2(fields.length);
+		for (int fieldName : fieldNames) {
+			c.u2(ACC_PRIVATE);
+			c.u2(fieldName);
+			c.u2(fieldType);
+			c.u2(0);	// attributes
+		}
+		c.u2(3);	// methods
+		method(c, init, initType, code, 1, 1, initCode);
+		// the sum, a weight and a value at most
+		method(c, compute, computeType, code, 6, 3 + 2 * p.firstState, computeCode);
+		method(c, reset, initType, code, 3, 1, resetCode);
+		c.u2(0);	// attributes
+		return c.toByteArray();
+	}
+
+	private static void method(Bytes c, int name, int type, int codeName,
+							   int maxStack, int maxLocals, Bytes code) {
+		c.u2(ACC_PUBLIC);
+		c.u2(name);
+		c.u2(type);
+		c.u2(1);
+		c.u2(codeName);
+		c.u4(12 + code.size());
+		c.u2(maxStack);
+		c.u2(maxLocals);
+		c.u4(code.size());
+		c.write(code.toByteArray(), 0, code.size());
+		c.u2(0);	// exception table
+		c.u2(0);	// attributes
+	}
+
+	private static void pushInt(Bytes code, int i) {
+		if (i <= 5)
+			code.u1(ICONST_0 + i);
+		else if (i <= Byte.MAX_VALUE) {
+			code.u1(BIPUSH);
+			code.u1(i);
+		}
+		else {
+			code.u1(SIPUSH);
+			code.u2(i);
+		}
+	}
+
+	private static void pushDouble(Bytes code, ConstantPool pool, double d) {
+		if (Double.doubleToRawLongBits(d) == 0)
+			code.u1(DCONST_0);
+		else if (d == 1)
+			code.u1(DCONST_1);
+		else {
+			code.u1(LDC2_W);
+			code.u2(pool.doubleConstant(d));
+		}
+	}
+
+	/**
+	 * Loads or stores the double local of the slot.
+	 */
+	private static void local(Bytes code, int opcode, int slot) {
+		final int index = 3 + 2 * slot;
+		if (index <= 0xff) {
+			code.u1(opcode);
+			code.u1(index);
+		}
+		else {
+			code.u1(WIDE);
+			code.u1(opcode);
+			code.u2(index);
+		}
+	}
+
+
+	private static final int
+			ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+	private static final int
+			ICONST_0 = 0x03, DCONST_0 = 0x0e, DCONST_1 = 0x0f, BIPUSH = 0x10, SIPUSH = 0x11,
+			LDC2_W = 0x14, DLOAD = 0x18, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c,
+			DALOAD = 0x31, DSTORE = 0x39, DASTORE = 0x52, DADD = 0x63, DMUL = 0x6b,
+			DDIV = 0x6f, RETURN = 0xb1, GETFIELD = 0xb4, PUTFIELD = 0xb5, INVOKESPECIAL = 0xb7,
+			WIDE = 0xc4;
+
+	private static final int
+			CONSTANT_UTF8 = 1, CONSTANT_DOUBLE = 6, CONSTANT_CLASS = 7, CONSTANT_FIELDREF = 9,
+			CONSTANT_METHODREF = 10, CONSTANT_NAME_AND_TYPE = 12;
+
+	private static class Bytes extends ByteArrayOutputStream {
+		void u1(int b) { write(b); }
+		void u2(int s) { write(s >>> 8); write(s); }
+		void u4(int i) { u2(i >>> 16); u2(i); }
+		void u8(long l) { u4((int) (l >>> 32)); u4((int) l); }
+	}
+
+	/**
+	 * The constant pool of a class file, adding each distinct constant once.
+	 */
+	private static class ConstantPool {
+		private final Bytes bytes = new Bytes();
+		private final Map<List<Object>, Integer> indices = new HashMap<>();
+		private int count = 1;
+
+		int utf8(String s) {
+			return indexOf(Arrays.asList(CONSTANT_UTF8, s), 1, () -> {
+				final byte[] b = s.getBytes(StandardCharsets.UTF_8);	// names are ASCII
+				bytes.u2(b.length);
+				bytes.write(b, 0, b.length);
+			});
+		}
+
+		int classRef(String name) {
+			final int nameIndex = utf8(name);
+			return indexOf(Arrays.asList(CONSTANT_CLASS, name), 1, () -> bytes.u2(nameIndex));
+		}
+
+		int methodRef(int owner, String name, String type) {
+			return memberRef(CONSTANT_METHODREF, owner, name, type);
+		}
+
+		int fieldRef(int owner, String name, String type) {
+			return memberRef(CONSTANT_FIELDREF, owner, name, type);
+		}
+
+		private int memberRef(int tag, int owner, String name, String type) {
+			final int nameIndex = utf8(name), typeIndex = utf8(type);
+			final int nameAndType = indexOf(
+					Arrays.asList(CONSTANT_NAME_AND_TYPE, name, type), 1, () -> {
+						bytes.u2(nameIndex);
+						bytes.u2(typeIndex);
+					});
+			return indexOf(Arrays.asList(tag, owner, name, type), 1, () -> {
+				bytes.u2(owner);
+				bytes.u2(nameAndType);
+			});
+		}
+
+		/**
+		 * Doubles take 2 entries.
+		 */
+		int doubleConstant(double d) {
+			final long bits = Double.doubleToRawLongBits(d);
+			return indexOf(Arrays.asList(CONSTANT_DOUBLE, bits), 2, () -> bytes.u8(bits));
+		}
+
+		private int indexOf(List<Object> key, int entries, Runnable body) {
+			final Integer known = indices.get(key);
+			if (known != null)
+				return known;
+
+			bytes.u1((Integer) key.get(0));
+			body.run();
+			indices.put(key, count);
+			count += entries;
+			return count - entries;
+		}
+
+		void writeTo(Bytes c) {
+			c.u2(count);
+			c.write(bytes.toByteArray(), 0, bytes.size());
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package network;
+
+/**
+ * Computes the outputs of a network from its inputs. Values carried by recurrent
+ * connections persist from one computation to the next until reset, so a network
+ * function is used by one thread at a time.
+ */
+public interface NetworkFunction {
+	/**
+	 * @param inputs	one value per input node
+	 * @param outputs	receives one value per output node
+	 */
+	void compute(double[] inputs, double[] outputs);
+
+	/**
+	 * Forgets the values carried over from earlier computations, as at the start of an
+	 * episode.
+	 */
+	void reset();
+}
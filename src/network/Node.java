@@ -13,9 +13,6 @@ public class Node implements Comparable<Node> {
 	private final List<Connection> prevConnections;
 	private final List<Connection> nextConnections;
 
-	private final List<Double> oldValues = new ArrayList<>();
-	private double value;
-
 	/**
 	 * Returns a new Node instance with only a type and id.
 	 * Node objects constructed from this method is not functional, they may only be used
@@ -70,30 +67,6 @@ public class Node implements Comparable<Node> {
 	}
 
 
-	
-	void write(double value) {
-		oldValues.add(value);
-
-		//update value if all previous connections have transmitted
-		if (oldValues.size() >= prevConnections.size()) {
-			double sum = 0;
-			for (double d : oldValues)
-				sum += d;
-
-			this.value = sum / oldValues.size();
-
-			oldValues.clear();
-		}
-
-		for (Connection c : nextConnections)
-			c.transmit(value);
-	}
-	
-	double read() {
-		return value;
-	}
-
-
 	public static Node parseNode(String strID) {
 		if (strID == null) throw new NullPointerException();
 		if (strID.length() < 2)
@@ -0,0 +1,1028 @@
+package network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A network simplified for computing, built by {@link #of(Network)}.
+ * <p>
+ * A node takes the mean of weight times value over its enabled incoming connections from
+ * nodes that receive a value at all; nodes that receive nothing stay 0. Biases are
+ * ignored, and so are connections into inputs.
+ * <p>
+ * Connections that close a cycle are recurrent: they carry the value their source had at
+ * the end of the previous computation, 0 after {@link #reset()}, while all other
+ * connections carry the value of the current computation. Connections are considered in
+ * innovation order, and a connection is recurrent if the ones before it that are not
+ * already lead from its target back to its source, so older connections make up the
+ * feed-forward structure and the choice does not depend on anything but the genome.
+ * <p>
+ * Before the nodes are laid out in topological order, the network is simplified without
+ * changing what it computes:
+ * <ul>
+ *     <li>disabled connections and connections from nodes that never receive a value are
+ *     dropped</li>
+ *     <li>zero-weight connections are dropped, only adding to the count their target
+ *     averages over</li>
+ *     <li>hidden nodes that cannot reach an output are dropped</li>
+ *     <li>nodes whose value cannot change, including inputs declared constant, are folded
+ *     into constants of the nodes they feed; inputs left unconnected are never read</li>
+ * </ul>
+ * A phenotype holds the values of its nodes, so each thread needs its own. Computing
+ * allocates nothing.
+ */
+public class Phenotype implements NetworkFunction {
+	// read by NetworkCompiler
+	final int[] inputIndices;
+	final int[] outputSlots;
+	final double[] outputConstants;
+
+	// used inputs take the first slots, computed node j in topological order the slot
+	// firstComputed + j, and the value remembered for recurrent connection source k the
+	// slot firstState + k
+	final int firstComputed, firstState;
+	final double[] constants, fanIns;
+	final int[] edgeStarts;
+	final int[] sources;
+	final double[] weights;
+	final int[] rememberedSlots;
+
+	private final double[] values;
+
+	// for patching: the node of each slot below firstState and the innovation number of
+	// each edge, and what the network looked like apart from the nodes in use
+	private final long[] slotIds;
+	private final long[] innovations;
+	private final boolean patchable;
+	private final Set<Long> reached, dead, recurrent;
+	private long maxInnovation;
+	// the edge of each innovation number, built when a weight first changes
+	private Map<Long, Integer> edgeOf;
+
+	private Phenotype(Draft draft, boolean patchable, Set<Long> reached, Set<Long> dead,
+					  Set<Long> recurrent, long maxInnovation) {
+		this.patchable = patchable;
+		this.reached = reached;
+		this.dead = dead;
+		this.recurrent = recurrent;
+		this.maxInnovation = maxInnovation;
+
+		firstComputed = draft.inputIds.size();
+		firstState = firstComputed + draft.computed.size();
+		slotIds = new long[firstState];
+		final Map<Long, Integer> slotOf = new HashMap<>();
+		inputIndices = new int[firstComputed];
+		for (int i = 0; i < firstComputed; i++) {
+			inputIndices[i] = draft.inputIndices.get(i);
+			slotIds[i] = draft.inputIds.get(i);
+			slotOf.put(slotIds[i], i);
+		}
+		for (int j = 0; j < draft.computed.size(); j++) {
+			slotIds[firstComputed + j] = draft.computed.get(j).id;
+			slotOf.put(slotIds[firstComputed + j], firstComputed + j);
+		}
+
+		final Map<Long, Integer> stateOf = new HashMap<>();
+		rememberedSlots = new int[draft.remembered.size()];
+		for (int k = 0; k < rememberedSlots.length; k++) {
+			final long id = draft.remembered.get(k);
+			stateOf.put(id, firstState + k);
+			rememberedSlots[k] = slotOf.get(id);
+		}
+
+		int edgeCount = 0;
+		for (Draft.Computed node : draft.computed)
+			edgeCount += node.terms.size();
+		constants = new double[draft.computed.size()];
+		fanIns = new double[draft.computed.size()];
+		edgeStarts = new int[draft.computed.size() + 1];
+		sources = new int[edgeCount];
+		weights = new double[edgeCount];
+		innovations = new long[edgeCount];
+		int e = 0;
+		for (int j = 0; j < draft.computed.size(); j++) {
+			final Draft.Computed node = draft.computed.get(j);
+			constants[j] = node.constant;
+			fanIns[j] = node.fanIn;
+			edgeStarts[j] = e;
+			for (Draft.Term t : node.terms) {
+				sources[e] = t.recurrent ? stateOf.get(t.source) : slotOf.get(t.source);
+				weights[e] = t.weight;
+				innovations[e] = t.innovation;
+				e++;
+			}
+		}
+		edgeStarts[draft.computed.size()] = e;
+
+		outputSlots = new int[draft.outputIds.size()];
+		outputConstants = new double[draft.outputIds.size()];
+		for (int i = 0; i < outputSlots.length; i++) {
+			final Long id = draft.outputIds.get(i);
+			outputSlots[i] = id == null ? -1 : slotOf.get(id);
+			outputConstants[i] = draft.outputConstants.get(i);
+		}
+
+		values = new double[firstState + rememberedSlots.length];
+	}
+
+	/**
+	 * A copy with nothing remembered, sharing all it never changes with the original.
+	 */
+	private Phenotype(Phenotype p) {
+		inputIndices = p.inputIndices;
+		outputSlots = p.outputSlots;
+		outputConstants = p.outputConstants;
+		firstComputed = p.firstComputed;
+		firstState = p.firstState;
+		constants = p.constants;
+		fanIns = p.fanIns;
+		edgeStarts = p.edgeStarts;
+		sources = p.sources;
+		weights = p.weights.clone();	// patched in place
+		rememberedSlots = p.rememberedSlots;
+		values = new double[p.values.length];
+
+		slotIds = p.slotIds;
+		innovations = p.innovations;
+		edgeOf = p.edgeOf;
+		patchable = p.patchable;
+		reached = new HashSet<>(p.reached);
+		dead = new HashSet<>(p.dead);
+		recurrent = new HashSet<>(p.recurrent);
+		maxInnovation = p.maxInnovation;
+	}
+
+	/**
+	 * The original laid out anew, taking over its patching state; the original is not to
+	 * be patched any more. The inputs and the constants of folded outputs never change.
+	 */
+	private Phenotype(Phenotype p, int[] outputSlots, double[] constants, double[] fanIns,
+					  int[] edgeStarts, int[] sources, double[] weights, long[] innovations,
+					  int[] rememberedSlots, long[] slotIds) {
+		inputIndices = p.inputIndices;
+		this.outputSlots = outputSlots;
+		outputConstants = p.outputConstants;
+		firstComputed = p.firstComputed;
+		firstState = firstComputed + constants.length;
+		this.constants = constants;
+		this.fanIns = fanIns;
+		this.edgeStarts = edgeStarts;
+		this.sources = sources;
+		this.weights = weights;
+		this.rememberedSlots = rememberedSlots;
+		values = new double[firstState + rememberedSlots.length];
+
+		this.slotIds = slotIds;
+		this.innovations = innovations;
+		patchable = p.patchable;
+		reached = p.reached;
+		dead = p.dead;
+		recurrent = p.recurrent;
+		maxInnovation = p.maxInnovation;
+	}
+
+
+	/**
+	 * Builds the simplified phenotype of the network.
+	 */
+	public static Phenotype of(Network network) {
+		return of(network, null);
+	}
+
+	/**
+	 * Builds the simplified phenotype of the network, folding the inputs that are known
+	 * to be constant.
+	 * @param constantInputs	the value of each input that is constant, NaN for the inputs
+	 *                          that are not; null if none is
+	 */
+	public static Phenotype of(Network network, double[] constantInputs) {
+		final List<Node> inputNodes = network.getInputNodes();
+		final List<Node> outputNodes = network.getOutputNodes();
+
+		// dense indices, inputs first
+		final Map<Long, Integer> index = new HashMap<>();
+		for (Node n : inputNodes)
+			index.putIfAbsent(n.getID(), index.size());
+		for (Node n : outputNodes)
+			index.putIfAbsent(n.getID(), index.size());
+		for (Long id : network.getHiddens().keySet())
+			index.putIfAbsent(id, index.size());
+		final int nodeCount = index.size();
+		final int inputCount = inputNodes.size();
+
+		// in innovation order
+		final List<List<Connection>> in = new ArrayList<>(nodeCount);
+		final List<List<Connection>> out = new ArrayList<>(nodeCount);
+		for (int i = 0; i < nodeCount; i++) {
+			in.add(new ArrayList<>());
+			out.add(new ArrayList<>());
+		}
+		for (Connection c : network.getConnections().values()) {
+			final Integer from = index.get(c.getPrevNode().getID());
+			final Integer to = index.get(c.getNextNode().getID());
+			if (!c.isEnabled() || from == null || to == null || to < inputCount)
+				continue;
+			out.get(from).add(c);
+			in.get(to).add(c);
+		}
+
+		// the nodes that receive a value, in topological order
+		final boolean[] reached = reachableFrom(inputCount, out, index);
+		Set<Long> recurrent = Collections.emptySet();
+		int[] order = topologicalOrder(inputCount, reached, out, index, recurrent);
+		if (order == null) {
+			recurrent = recurrentConnections(network, inputCount, index);
+			order = topologicalOrder(inputCount, reached, out, index, recurrent);
+		}
+
+		// recurrent connections read their source as it was, so it has to be computed
+		final boolean[] remembered = new boolean[nodeCount];
+		for (List<Connection> connections : in)
+			for (Connection c : connections) {
+				final int from = index.get(c.getPrevNode().getID());
+				if (recurrent.contains(c.getInnovationNumber()) && reached[from] &&
+						c.getWeight() != 0)
+					remembered[from] = true;
+			}
+
+		// fold constants in topological order
+		final boolean[] constant = new boolean[nodeCount];
+		final double[] value = new double[nodeCount];
+		Arrays.fill(constant, true);	// nodes that receive nothing stay 0
+		for (final int n : order) {
+			if (n < inputCount) {
+				constant[n] = constantInputs != null && n < constantInputs.length &&
+						!Double.isNaN(constantInputs[n]);
+				value[n] = constant[n] ? constantInputs[n] : 0;
+				continue;
+			}
+
+			double sum = 0;
+			int fanIn = 0;
+			constant[n] = !remembered[n];
+			for (Connection c : in.get(n)) {
+				final int from = index.get(c.getPrevNode().getID());
+				if (!reached[from])
+					continue;
+				fanIn++;
+				if (c.getWeight() == 0)
+					continue;
+				if (constant[from] && !recurrent.contains(c.getInnovationNumber()))
+					sum += c.getWeight() * value[from];
+				else
+					constant[n] = false;
+			}
+			value[n] = constant[n] ? sum / fanIn : 0;
+		}
+
+		// variable nodes that feed a variable output through nonzero weights, until no
+		// recurrent connection adds any
+		final boolean[] used = new boolean[nodeCount];
+		for (Node o : outputNodes) {
+			final int n = index.get(o.getID());
+			used[n] = !constant[n];
+		}
+		for (boolean changed = true; changed; ) {
+			changed = false;
+			for (int k = order.length - 1; k >= 0; k--) {
+				final int n = order[k];
+				if (!used[n])
+					continue;
+				for (Connection c : in.get(n)) {
+					final int from = index.get(c.getPrevNode().getID());
+					if (reached[from] && !constant[from] && c.getWeight() != 0 && !used[from]) {
+						used[from] = true;
+						changed |= recurrent.contains(c.getInnovationNumber());
+					}
+				}
+			}
+		}
+
+		// laid out from the nodes in use
+		final long[] ids = new long[nodeCount];
+		index.forEach((id, n) -> ids[n] = id);
+		final Draft draft = new Draft();
+		for (int i = 0; i < inputCount; i++) {
+			if (used[i]) {
+				draft.inputIndices.add(i);
+				draft.inputIds.add(ids[i]);
+			}
+		}
+		for (final int n : order) {
+			if (n < inputCount || !used[n])
+				continue;
+			final Draft.Computed node = new Draft.Computed(ids[n]);
+			for (Connection c : in.get(n)) {
+				final int from = index.get(c.getPrevNode().getID());
+				if (!reached[from])
+					continue;
+				node.fanIn++;
+				if (c.getWeight() == 0)
+					continue;
+				final boolean isRecurrent = recurrent.contains(c.getInnovationNumber());
+				if (constant[from] && !isRecurrent)
+					node.constant += c.getWeight() * value[from];
+				else
+					node.terms.add(new Draft.Term(
+							ids[from], isRecurrent, c.getWeight(), c.getInnovationNumber()));
+			}
+			draft.computed.add(node);
+		}
+		for (final int n : order)
+			if (remembered[n] && used[n])
+				draft.remembered.add(ids[n]);
+		for (Node o : outputNodes) {
+			final int n = index.get(o.getID());
+			draft.outputIds.add(used[n] ? ids[n] : null);
+			draft.outputConstants.add(value[n]);
+		}
+
+		// the nodes that cannot reach an output
+		final boolean[] alive = new boolean[nodeCount];
+		final Deque<Integer> stack = new ArrayDeque<>();
+		for (Node o : outputNodes) {
+			final int n = index.get(o.getID());
+			if (!alive[n]) {
+				alive[n] = true;
+				stack.push(n);
+			}
+		}
+		while (!stack.isEmpty())
+			for (Connection c : in.get(stack.pop())) {
+				final int from = index.get(c.getPrevNode().getID());
+				if (!alive[from]) {
+					alive[from] = true;
+					stack.push(from);
+				}
+			}
+
+		final Set<Long> reachedIds = new HashSet<>(), deadIds = new HashSet<>();
+		for (int n = 0; n < nodeCount; n++) {
+			if (reached[n])
+				reachedIds.add(ids[n]);
+			if (!alive[n])
+				deadIds.add(ids[n]);
+		}
+		long maxInnovation = Long.MIN_VALUE;
+		for (long innovation : network.getConnections().keySet())
+			maxInnovation = Math.max(maxInnovation, innovation);
+
+		return new Phenotype(draft, constantInputs == null,
+				reachedIds, deadIds, new HashSet<>(recurrent), maxInnovation);
+	}
+
+	private static boolean[] reachableFrom(int inputCount, List<List<Connection>> out,
+										   Map<Long, Integer> index) {
+		final boolean[] reachable = new boolean[out.size()];
+		final Deque<Integer> stack = new ArrayDeque<>();
+		for (int i = 0; i < inputCount; i++) {
+			reachable[i] = true;
+			stack.push(i);
+		}
+		while (!stack.isEmpty())
+			for (Connection c : out.get(stack.pop())) {
+				final int to = index.get(c.getNextNode().getID());
+				if (!reachable[to]) {
+					reachable[to] = true;
+					stack.push(to);
+				}
+			}
+		return reachable;
+	}
+
+	/**
+	 * Returns the reached nodes in topological order over the connections that are not
+	 * recurrent, or null if those form a cycle.
+	 */
+	private static int[] topologicalOrder(int inputCount, boolean[] reached,
+										  List<List<Connection>> out, Map<Long, Integer> index,
+										  Set<Long> recurrent) {
+		final int[] pending = new int[out.size()];
+		int reachedCount = 0;
+		for (int n = 0; n < out.size(); n++) {
+			if (!reached[n])
+				continue;
+			reachedCount++;
+			for (Connection c : out.get(n))
+				if (!recurrent.contains(c.getInnovationNumber()))
+					pending[index.get(c.getNextNode().getID())]++;
+		}
+
+		final int[] order = new int[reachedCount];
+		int ordered = 0;
+		final Deque<Integer> ready = new ArrayDeque<>();
+		for (int n = 0; n < out.size(); n++)
+			if (reached[n] && pending[n] == 0)
+				ready.add(n);
+		while (!ready.isEmpty()) {
+			final int n = ready.poll();
+			order[ordered++] = n;
+			for (Connection c : out.get(n)) {
+				final int to = index.get(c.getNextNode().getID());
+				if (!recurrent.contains(c.getInnovationNumber()) && --pending[to] == 0)
+					ready.add(to);
+			}
+		}
+
+		return ordered == reachedCount ? order : null;
+	}
+
+	/**
+	 * Returns the enabled connections that close a cycle with the connections before them
+	 * in innovation order.
+	 */
+	private static Set<Long> recurrentConnections(Network network, int inputCount,
+												  Map<Long, Integer> index) {
+		final Set<Long> recurrent = new HashSet<>();
+		final List<List<Integer>> forward = new ArrayList<>(index.size());
+		for (int i = 0; i < index.size(); i++)
+			forward.add(new ArrayList<>());
+
+		final int[] visited = new int[index.size()];
+		int visit = 0;
+		final Deque<Integer> stack = new ArrayDeque<>();
+		for (Connection c : network.getConnections().values()) {
+			final Integer from = index.get(c.getPrevNode().getID());
+			final Integer to = index.get(c.getNextNode().getID());
+			if (!c.isEnabled() || from == null || to == null || to < inputCount)
+				continue;
+
+			// does the target lead back to the source?
+			boolean cycle = false;
+			visit++;
+			stack.clear();
+			stack.push(to);
+			visited[to] = visit;
+			while (!stack.isEmpty() && !cycle) {
+				final int n = stack.pop();
+				cycle = n == from;
+				for (int next : forward.get(n))
+					if (visited[next] != visit) {
+						visited[next] = visit;
+						stack.push(next);
+					}
+			}
+
+			if (cycle)
+				recurrent.add(c.getInnovationNumber());
+			else
+				forward.get(from).add(to);
+		}
+
+		return recurrent;
+	}
+
+
+	/**
+	 * Computes the outputs for the inputs. Missing inputs are 0.
+	 * @param outputs	receives one value per output node
+	 */
+	@Override
+	public void compute(double[] inputs, double[] outputs) {
+		for (int i = 0; i < inputIndices.length; i++)
+			values[i] = inputIndices[i] < inputs.length ? inputs[inputIndices[i]] : 0;
+
+		for (int j = 0; j < constants.length; j++) {
+			double sum = constants[j];
+			for (int e = edgeStarts[j]; e < edgeStarts[j + 1]; e++)
+				sum += weights[e] * values[sources[e]];
+			values[firstComputed + j] = sum / fanIns[j];
+		}
+
+		for (int k = 0; k < rememberedSlots.length; k++)
+			values[firstState + k] = values[rememberedSlots[k]];
+
+		for (int i = 0; i < outputSlots.length; i++)
+			outputs[i] = outputSlots[i] < 0 ? outputConstants[i] : values[outputSlots[i]];
+	}
+
+	/**
+	 * Forgets the values remembered for recurrent connections.
+	 */
+	@Override
+	public void reset() {
+		Arrays.fill(values, firstState, values.length, 0);
+	}
+
+	/**
+	 * Same as {@link #compute(double[], double[])}, in the form of
+	 * {@link Network#compute(List)}.
+	 */
+	public List<Double> compute(List<Double> inputs) {
+		final double[] in = new double[inputs.size()];
+		for (int i = 0; i < in.length; i++)
+			in[i] = inputs.get(i);
+
+		final double[] out = new double[outputSlots.length];
+		compute(in, out);
+
+		final List<Double> outputs = new ArrayList<>(out.length);
+		for (double d : out)
+			outputs.add(d);
+		return outputs;
+	}
+
+
+	/**
+	 * Returns a copy of this phenotype with nothing remembered.
+	 */
+	Phenotype copy() {
+		return new Phenotype(this);
+	}
+
+	/**
+	 * The connection genes of the network or genome a phenotype is patched along with,
+	 * looked up by innovation number.
+	 */
+	interface Genes {
+		long prevOf(long innovation);
+		long nextOf(long innovation);
+		double weightOf(long innovation);
+		boolean isEnabled(long innovation);
+		boolean isInput(long id);
+
+		/**
+		 * Calls the visitor with the innovation number and the target of every enabled
+		 * connection leaving the node.
+		 */
+		void forEachNext(long id, NextVisitor visitor);
+	}
+
+	@FunctionalInterface
+	interface NextVisitor {
+		void visit(long innovation, long next);
+	}
+
+	/**
+	 * Follows the weight of a connection to its new value, in place. Returns false if the
+	 * phenotype has to be built anew instead.
+	 */
+	boolean weightChanged(Genes genes, long innovation, double oldWeight) {
+		if (!patchable)
+			return false;
+		final long from = genes.prevOf(innovation), to = genes.nextOf(innovation);
+		if (!genes.isEnabled(innovation) || genes.isInput(to) ||
+				!reached.contains(from) || dead.contains(to))
+			return true;	// the weight has no effect
+
+		final int e = edgeOf(innovation);
+		final double weight = genes.weightOf(innovation);
+		if (e < 0 || oldWeight == 0 || weight == 0)
+			return false;	// folded, or dropped for its zero weight
+		weights[e] = weight;
+		return true;
+	}
+
+	/**
+	 * Returns the phenotype with the connection added to it, which is this one if the
+	 * connection has no effect, or null if it has to be built anew instead. A connection
+	 * between nodes in use is inserted as the last edge of its target; if its target
+	 * comes first in topological order, only the nodes in between are sorted again.
+	 */
+	Phenotype connectionAdded(Genes genes, long innovation) {
+		// an older innovation might change which connections are recurrent
+		if (!patchable || innovation <= maxInnovation)
+			return null;
+		maxInnovation = innovation;
+
+		final long from = genes.prevOf(innovation), to = genes.nextOf(innovation);
+		if (!genes.isEnabled(innovation) || genes.isInput(to))
+			return this;
+		if (dead.contains(from) && !dead.contains(to))
+			return null;	// the source and what leads to it now reach an output
+		if (!reached.contains(from))
+			return this;
+		if (dead.contains(to)) {
+			// what the target now reaches cannot reach an output either
+			markReached(genes, to);
+			return this;
+		}
+
+		final int fromSlot = slotOf(from), toSlot = slotOf(to);
+		final double weight = genes.weightOf(innovation);
+		if (weight == 0 || fromSlot < 0 || toSlot < firstComputed)
+			return null;	// changes what is in use or folded
+
+		if (leadsTo(genes, to, from, innovation, innovation)) {
+			recurrent.add(innovation);
+			int k = stateOf(fromSlot);
+			Phenotype p = this;
+			if (k < 0) {
+				p = withRemembered(fromSlot);
+				k = p.rememberedSlots.length - 1;
+			}
+			return p.withEdge(toSlot - firstComputed, firstState + k, weight, innovation);
+		}
+
+		final Phenotype p = fromSlot > toSlot ?
+				sortedAfter(toSlot - firstComputed, fromSlot - firstComputed) : this;
+		return p.withEdge(p.slotOf(to) - firstComputed, p.slotOf(from), weight, innovation);
+	}
+
+	/**
+	 * Returns the phenotype with the connection split by a node, which is this one if the
+	 * split has no effect, or null if it has to be built anew instead. The new node is
+	 * spliced in right before the target of the split connection, or right after its
+	 * source if the split connection is recurrent, in which case the connection out of
+	 * the new node is recurrent in its place.
+	 * @param in	the connection into the new node
+	 * @param out	the connection out of the new node
+	 */
+	Phenotype nodeAdded(Genes genes, long split, long in, long out) {
+		if (!patchable || Math.min(in, out) <= maxInnovation)
+			return null;
+		maxInnovation = Math.max(in, out);
+
+		final long from = genes.prevOf(split), added = genes.nextOf(in), to = genes.nextOf(split);
+		final boolean wasRecurrent = recurrent.contains(split);
+		if (wasRecurrent)
+			recurrent.add(out);
+
+		// nothing that reaches an output could close a cycle through the split connection
+		if (!reached.contains(from) || dead.contains(to)) {
+			// the target counts the new node in place of the split connection
+			if (reached.contains(from))
+				reached.add(added);
+			if (dead.contains(to))
+				dead.add(added);
+			return this;
+		}
+
+		final int e = edgeOf(split);
+		if (e < 0 || genes.weightOf(in) == 0 || genes.weightOf(out) == 0)
+			return null;	// folded, or dropped for its zero weight
+		if (!wasRecurrent && !stillRecurrent(genes, split))
+			return null;
+
+		final int fromSlot = slotOf(from);
+		reached.add(added);
+
+		if (!wasRecurrent) {
+			final int j = slotOf(to) - firstComputed;
+			// the target moves up by a slot and its edges by one edge
+			return withNode(j, added, fromSlot, genes.weightOf(in), in)
+					.withEdgeReplaced(j + 1, e + 1, firstComputed + j, genes.weightOf(out), out);
+		}
+
+		final int j = fromSlot < firstComputed ? 0 : fromSlot - firstComputed + 1;
+		Phenotype p = withNode(j, added, fromSlot, genes.weightOf(in), in)
+				.withRemembered(firstComputed + j);
+		final int addedState = p.firstState + p.rememberedSlots.length - 1;
+		p = p.withEdgeReplaced(p.slotOf(to) - firstComputed, p.indexOfEdge(split),
+				addedState, genes.weightOf(out), out);
+
+		// the source may have been remembered for the split connection alone
+		final int k = p.stateOf(fromSlot);
+		for (int source : p.sources)
+			if (source == p.firstState + k)
+				return p;
+		return p.withoutRemembered(k);
+	}
+
+	/**
+	 * Returns true if the recurrent connections younger than the split connection, which is
+	 * disabled now, all still close a cycle with the connections before them. Then no
+	 * connection changes whether it is recurrent, as the others only lost a connection,
+	 * and a recurrent split connection never counted.
+	 */
+	private boolean stillRecurrent(Genes genes, long split) {
+		for (long r : recurrent)
+			if (r > split && genes.isEnabled(r) &&
+					!leadsTo(genes, genes.nextOf(r), genes.prevOf(r), r, r))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns true if a path of enabled connections that are not recurrent leads from a
+	 * node to another, ignoring the connection of the specified innovation number and
+	 * connections from the specified one on.
+	 */
+	private boolean leadsTo(Genes genes, long start, long id, long ignored, long before) {
+		final Set<Long> visited = new HashSet<>();
+		final Deque<Long> stack = new ArrayDeque<>();
+		stack.push(start);
+		visited.add(start);
+
+		while (!stack.isEmpty()) {
+			final long n = stack.pop();
+			if (n == id)
+				return true;
+
+			genes.forEachNext(n, (innovation, next) -> {
+				if (innovation != ignored && innovation < before &&
+						!recurrent.contains(innovation) && !genes.isInput(next) &&
+						visited.add(next))
+					stack.push(next);
+			});
+		}
+
+		return false;
+	}
+
+	private void markReached(Genes genes, long start) {
+		final Deque<Long> stack = new ArrayDeque<>();
+		if (reached.add(start))
+			stack.push(start);
+
+		while (!stack.isEmpty())
+			genes.forEachNext(stack.pop(), (innovation, next) -> {
+				if (!genes.isInput(next) && reached.add(next))
+					stack.push(next);
+			});
+	}
+
+
+	//////////////////////////////
+	//splicing, each returns a new phenotype and leaves this one as it is
+
+	/**
+	 * Returns the phenotype with the slot remembered in the state slot after the others.
+	 */
+	private Phenotype withRemembered(int slot) {
+		final int[] remembered = Arrays.copyOf(rememberedSlots, rememberedSlots.length + 1);
+		remembered[rememberedSlots.length] = slot;
+		return new Phenotype(this, outputSlots, constants, fanIns, edgeStarts,
+				sources, weights, innovations, remembered, slotIds);
+	}
+
+	/**
+	 * Returns the phenotype without the k-th state slot; later state slots move down.
+	 */
+	private Phenotype withoutRemembered(int k) {
+		final int removed = firstState + k;
+		final int[] newSources = sources.clone();
+		for (int e = 0; e < newSources.length; e++)
+			if (newSources[e] > removed)
+				newSources[e]--;
+
+		final int[] remembered = new int[rememberedSlots.length - 1];
+		System.arraycopy(rememberedSlots, 0, remembered, 0, k);
+		System.arraycopy(rememberedSlots, k + 1, remembered, k, remembered.length - k);
+		return new Phenotype(this, outputSlots, constants, fanIns, edgeStarts,
+				newSources, weights, innovations, remembered, slotIds);
+	}
+
+	/**
+	 * Returns the phenotype with an edge appended to the edges of the j-th computed node,
+	 * which counts it in its fan-in.
+	 */
+	private Phenotype withEdge(int j, int source, double weight, long innovation) {
+		final int at = edgeStarts[j + 1];
+		final int[] starts = edgeStarts.clone();
+		for (int k = j + 1; k < starts.length; k++)
+			starts[k]++;
+		final double[] newFanIns = fanIns.clone();
+		newFanIns[j]++;
+
+		return new Phenotype(this, outputSlots, constants, newFanIns, starts,
+				inserted(sources, at, source), inserted(weights, at, weight),
+				inserted(innovations, at, innovation), rememberedSlots, slotIds);
+	}
+
+	/**
+	 * Returns the phenotype with edge e of the j-th computed node replaced by an edge that
+	 * comes last among the edges of the node.
+	 */
+	private Phenotype withEdgeReplaced(int j, int e, int source, double weight,
+									   long innovation) {
+		final int last = edgeStarts[j + 1] - 1;
+		final int[] newSources = sources.clone();
+		final double[] newWeights = weights.clone();
+		final long[] newInnovations = innovations.clone();
+		System.arraycopy(sources, e + 1, newSources, e, last - e);
+		System.arraycopy(weights, e + 1, newWeights, e, last - e);
+		System.arraycopy(innovations, e + 1, newInnovations, e, last - e);
+		newSources[last] = source;
+		newWeights[last] = weight;
+		newInnovations[last] = innovation;
+
+		return new Phenotype(this, outputSlots, constants, fanIns, edgeStarts,
+				newSources, newWeights, newInnovations, rememberedSlots, slotIds);
+	}
+
+	/**
+	 * Returns the phenotype with a node computed from a single edge inserted as the j-th
+	 * computed node. The slots from the new one on move up by one.
+	 * @param source	the slot the edge reads, before the new node
+	 */
+	private Phenotype withNode(int j, long id, int source, double weight, long innovation) {
+		final int slot = firstComputed + j;
+		final int at = edgeStarts[j];
+
+		final int[] newSources = new int[sources.length + 1];
+		for (int e = 0; e < sources.length; e++)
+			newSources[e < at ? e : e + 1] = sources[e] >= slot ? sources[e] + 1 : sources[e];
+		newSources[at] = source;
+
+		final int[] starts = new int[edgeStarts.length + 1];
+		System.arraycopy(edgeStarts, 0, starts, 0, j + 1);
+		for (int k = j + 1; k < starts.length; k++)
+			starts[k] = edgeStarts[k - 1] + 1;
+
+		return new Phenotype(this, shifted(outputSlots, slot), inserted(constants, j, 0),
+				inserted(fanIns, j, 1), starts, newSources, inserted(weights, at, weight),
+				inserted(innovations, at, innovation), shifted(rememberedSlots, slot),
+				inserted(slotIds, slot, id));
+	}
+
+	/**
+	 * Returns the phenotype with the computed nodes from first to last sorted again for an
+	 * edge from the last to the first: the ones that depend on the first move after the
+	 * others. Only the edges from the first on are touched.
+	 */
+	private Phenotype sortedAfter(int first, int last) {
+		final boolean[] moving = new boolean[last - first + 1];
+		moving[0] = true;
+		for (int j = first + 1; j <= last; j++)
+			for (int e = edgeStarts[j]; e < edgeStarts[j + 1] && !moving[j - first]; e++) {
+				final int source = sources[e] - firstComputed - first;
+				moving[j - first] = source >= 0 && source < moving.length && moving[source];
+			}
+
+		// the new order of the segment, the staying nodes first
+		final int[] order = new int[moving.length];
+		final int[] position = new int[moving.length];
+		int n = 0;
+		for (int pass = 0; pass < 2; pass++)
+			for (int k = 0; k < moving.length; k++)
+				if (moving[k] == (pass == 1)) {
+					position[k] = n;
+					order[n++] = k;
+				}
+
+		final int low = firstComputed + first, high = firstComputed + last;
+		final int[] slotMap = new int[firstState];
+		for (int slot = 0; slot < firstState; slot++)
+			slotMap[slot] = slot < low || slot > high ? slot : low + position[slot - low];
+
+		final double[] newConstants = constants.clone(), newFanIns = fanIns.clone();
+		final long[] newSlotIds = slotIds.clone();
+		final int[] starts = edgeStarts.clone();
+		final int[] newSources = sources.clone();
+		final double[] newWeights = weights.clone();
+		final long[] newInnovations = innovations.clone();
+
+		int e = edgeStarts[first];
+		for (int k = 0; k < order.length; k++) {
+			final int j = first + order[k];
+			newConstants[first + k] = constants[j];
+			newFanIns[first + k] = fanIns[j];
+			newSlotIds[low + k] = slotIds[firstComputed + j];
+			starts[first + k] = e;
+
+			final int count = edgeStarts[j + 1] - edgeStarts[j];
+			System.arraycopy(sources, edgeStarts[j], newSources, e, count);
+			System.arraycopy(weights, edgeStarts[j], newWeights, e, count);
+			System.arraycopy(innovations, edgeStarts[j], newInnovations, e, count);
+			e += count;
+		}
+
+		// nodes before the segment only read slots before it or state slots
+		for (e = edgeStarts[first]; e < newSources.length; e++)
+			if (newSources[e] < firstState)
+				newSources[e] = slotMap[newSources[e]];
+		final int[] newRemembered = rememberedSlots.clone();
+		for (int k = 0; k < newRemembered.length; k++)
+			newRemembered[k] = slotMap[newRemembered[k]];
+		final int[] newOutputs = outputSlots.clone();
+		for (int i = 0; i < newOutputs.length; i++)
+			if (newOutputs[i] >= 0)
+				newOutputs[i] = slotMap[newOutputs[i]];
+
+		return new Phenotype(this, newOutputs, newConstants, newFanIns, starts,
+				newSources, newWeights, newInnovations, newRemembered, newSlotIds);
+	}
+
+	private static int[] shifted(int[] slots, int from) {
+		final int[] shifted = slots.clone();
+		for (int i = 0; i < shifted.length; i++)
+			if (shifted[i] >= from)
+				shifted[i]++;
+		return shifted;
+	}
+
+	private static int[] inserted(int[] a, int at, int value) {
+		final int[] b = new int[a.length + 1];
+		System.arraycopy(a, 0, b, 0, at);
+		System.arraycopy(a, at, b, at + 1, a.length - at);
+		b[at] = value;
+		return b;
+	}
+
+	private static double[] inserted(double[] a, int at, double value) {
+		final double[] b = new double[a.length + 1];
+		System.arraycopy(a, 0, b, 0, at);
+		System.arraycopy(a, at, b, at + 1, a.length - at);
+		b[at] = value;
+		return b;
+	}
+
+	private static long[] inserted(long[] a, int at, long value) {
+		final long[] b = new long[a.length + 1];
+		System.arraycopy(a, 0, b, 0, at);
+		System.arraycopy(a, at, b, at + 1, a.length - at);
+		b[at] = value;
+		return b;
+	}
+
+	/**
+	 * Returns the slot of the node, or -1 if it is not in use.
+	 */
+	private int slotOf(long id) {
+		for (int slot = 0; slot < firstState; slot++)
+			if (slotIds[slot] == id)
+				return slot;
+		return -1;
+	}
+
+	/**
+	 * Returns the position of the slot among the remembered ones, or -1 if it is not.
+	 */
+	private int stateOf(int slot) {
+		for (int k = 0; k < rememberedSlots.length; k++)
+			if (rememberedSlots[k] == slot)
+				return k;
+		return -1;
+	}
+
+	private int indexOfEdge(long innovation) {
+		for (int e = 0; e < innovations.length; e++)
+			if (innovations[e] == innovation)
+				return e;
+		return -1;
+	}
+
+	/**
+	 * Same as {@link #indexOfEdge(long)}, through a map built once, as weights change
+	 * many at a time.
+	 */
+	private int edgeOf(long innovation) {
+		if (edgeOf == null) {
+			final Map<Long, Integer> map = new HashMap<>();
+			for (int e = 0; e < innovations.length; e++)
+				map.put(innovations[e], e);
+			edgeOf = map;
+		}
+		final Integer e = edgeOf.get(innovation);
+		return e == null ? -1 : e;
+	}
+
+
+	public int getInputCount() { return inputIndices.length; }
+	public int getOutputCount() { return outputSlots.length; }
+	/**
+	 * Returns the number of nodes computed on every call, inputs and outputs excluded if
+	 * they were folded.
+	 */
+	public int getNodeCount() { return constants.length; }
+	public int getConnectionCount() { return sources.length; }
+
+
+	/**
+	 * A phenotype laid out node by node, before it is flattened into arrays.
+	 */
+	private static class Draft {
+		private static class Term {
+			private final long source;
+			private final boolean recurrent;
+			private final double weight;
+			private final long innovation;
+
+			private Term(long source, boolean recurrent, double weight, long innovation) {
+				this.source = source;
+				this.recurrent = recurrent;
+				this.weight = weight;
+				this.innovation = innovation;
+			}
+		}
+
+		private static class Computed {
+			private final long id;
+			private double constant, fanIn;
+			// in innovation order
+			private final List<Term> terms = new ArrayList<>();
+
+			private Computed(long id) {
+				this.id = id;
+			}
+		}
+
+		private final List<Integer> inputIndices = new ArrayList<>();
+		private final List<Long> inputIds = new ArrayList<>();
+		// in topological order
+		private final List<Computed> computed = new ArrayList<>();
+		private final List<Long> remembered = new ArrayList<>();
+		// null for outputs folded to their constant
+		private final List<Long> outputIds = new ArrayList<>();
+		private final List<Double> outputConstants = new ArrayList<>();
+	}
+}
@@ -29,6 +29,10 @@ public class Car extends Rectangle2D.Double {
 	/**
 	 * In U/ms^2. This is the acceleration constant used when {@link #accelerate()}
 	 * is called.
+	 * <p>
+	 * Like all amounts of change below, this is the change over one
+	 * {@link Simulation#UPDATE_INTERVAL}. Each advance applies it in proportion to the
+	 * time step of the car.
 	 */
 	private static final double ACCELERATION = 0.05;
 	/**
@@ -66,18 +70,34 @@ public class Car extends Rectangle2D.Double {
 	private final List<Sensor> sensors = new ArrayList<>();
 	private final World world;
 
+	/**
+	 * The simulated time of one advance in {@link Simulation#UPDATE_INTERVAL}s.
+	 */
+	private final double steps;
+
 	/**
 	 * Construct a car at the specified locations with default width and height.
 	 * @param x	the x coordinate of the center
 	 * @param y	the y coordinate of the center
 	 */
 	public Car(World world, int x, int y) {
+		this(world, x, y, Simulation.UPDATE_INTERVAL);
+	}
+
+	/**
+	 * Construct a car at the specified locations with default width and height.
+	 * @param x	the x coordinate of the center
+	 * @param y	the y coordinate of the center
+	 * @param timeStep	the simulated time of one advance in ms
+	 */
+	public Car(World world, int x, int y, double timeStep) {
 		//using WIDTH then LENGTH would draw a car with heading 0 facing up,
 		//as they are taken as the width and height of the rectangle
 		super(x - LENGTH/2, -y - WIDTH/2, LENGTH, WIDTH);
 		xC = 0;
 		yC = 0;
 		this.world = world;
+		steps = timeStep / Simulation.UPDATE_INTERVAL;
 
 		//add sensors
 		sensors.add(sensorL = new Sensor(this, Math.PI/2));	//+90
@@ -134,7 +154,7 @@ public class Car extends Rectangle2D.Double {
 	 * @param x	the x coordinate to set the center of this car to
 	 * @param y	the y coordinate to set the center of this car to
 	 */
-	protected synchronized void setTo(int x, int y) {
+	protected synchronized void setTo(double x, double y) {
 		xC = x;
 		yC = y;
 	}
@@ -144,56 +164,60 @@ public class Car extends Rectangle2D.Double {
 	}
 
 	/**
-	 * Accelerate this car by {@link #ACCELERATION}.
+	 * Accelerate this car by {@link #ACCELERATION} per update interval of the time step.
 	 * @return the velocity after acceleration
 	 */
 	public synchronized double accelerate() {
 		if (getSpeed() < MAX_FORWARD_SPEED)
-			speed += ACCELERATION;
+			speed += ACCELERATION * steps;
 		return speed;
 	}
 
 	/**
-	 * Decelerate this car by {@link #ACCELERATION}.
+	 * Decelerate this car by {@link #ACCELERATION} per update interval of the time step.
 	 * @return the velocity after deceleration
 	 */
 	public synchronized double decelerate() {
 		if (getSpeed() > MAX_BACKWARD_SPEED)
-			speed -= ACCELERATION;
+			speed -= ACCELERATION * steps;
 		return speed;
 	}
 
 	/**
 	 * Attempt to stop the car, decelerate or accelerate depending
 	 * on the current velocity.
-	 * Change the velocity toward 0 by {@link #DECELERATION}
+	 * Change the velocity toward 0 by {@link #DECELERATION} per update interval of the
+	 * time step.
 	 * @return	the velocity after brake
 	 */
 	public synchronized double brake() {
-		if (getSpeed() > DECELERATION)
-			speed -= DECELERATION;
-		else if (getSpeed() < -DECELERATION)
-			speed += DECELERATION;
+		final double deceleration = DECELERATION * steps;
+		if (getSpeed() > deceleration)
+			speed -= deceleration;
+		else if (getSpeed() < -deceleration)
+			speed += deceleration;
 		else
 			speed = 0;
 		return speed;
 	}
 
 	/**
-	 * Turn steering by {@link #TURN_AMOUNT} radians to the left.
+	 * Turn steering by {@link #TURN_AMOUNT} radians per update interval of the time step
+	 * to the left.
 	 * @return the updated heading
 	 */
 	public synchronized double turnLeft() {
-		heading += TURN_AMOUNT;
+		heading += TURN_AMOUNT * steps;
 		return heading;
 	}
 
 	/**
-	 * Turn steering by {@link #TURN_AMOUNT} radians to the right.
+	 * Turn steering by {@link #TURN_AMOUNT} radians per update interval of the time step
+	 * to the right.
 	 * @return the updated heading
 	 */
 	public synchronized double turnRight() {
-		heading -= TURN_AMOUNT;
+		heading -= TURN_AMOUNT * steps;
 		return heading;
 	}
 
@@ -234,6 +258,13 @@ public class Car extends Rectangle2D.Double {
 	
 	public List<Sensor> getSensors() { return Collections.unmodifiableList(sensors); }
 	
+	/**
+	 * Measures all sensors again from where the car is now.
+	 */
+	void updateSensors() {
+		sensors.forEach(Sensor::update);
+	}
+
 	public List<java.lang.Double> getReadings() {	//conflicting class names
 		return sensors.stream()
 				.mapToDouble(Sensor::measure)
@@ -244,11 +275,12 @@ public class Car extends Rectangle2D.Double {
 
 
 	/**
-	 * Advance the location of this car based on the current speed and heading.
+	 * Advance the location of this car by one time step based on the current speed and
+	 * heading. The speed is in units per {@link Simulation#UPDATE_INTERVAL}.
 	 */
 	synchronized void advance() {
-		xC += getSpeed() * Math.cos(getHeading());
-		yC += getSpeed() * Math.sin(getHeading());
+		xC += getSpeed() * steps * Math.cos(getHeading());
+		yC += getSpeed() * steps * Math.sin(getHeading());
 		
 		//don't advance the graphics, keep car in the center
 //		x = xC - LENGTH / 2;
@@ -0,0 +1,139 @@
+package simulation;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.*;
+
+/**
+ * Divides the world into square chunks and keeps only the chunks around the car in
+ * memory. Chunks are requested from a {@link ChunkSource} as the car approaches and
+ * evicted in least recently used order once more than the capacity are held, so memory
+ * stays constant no matter how far the car drives.
+ * <p>
+ * Sensors and collision detection only ever see the edges of resident chunks.
+ */
+public class ChunkedTrack {
+	/**
+	 * Side length of a chunk, in U.
+	 */
+	static final double CHUNK_SIZE = 500;
+
+	/**
+	 * Provides the edges within a chunk. Must return the same edges every time the same
+	 * chunk is requested, as chunks may be evicted and requested again.
+	 */
+	@FunctionalInterface
+	public interface ChunkSource {
+		/**
+		 * Returns the edges intersecting the chunk covering
+		 * [cx * CHUNK_SIZE, (cx+1) * CHUNK_SIZE) x [cy * CHUNK_SIZE, (cy+1) * CHUNK_SIZE).
+		 * An edge spanning several chunks may be returned for each of them.
+		 */
+		List<Line2D> loadChunk(int cx, int cy);
+
+		/**
+		 * Returns a source serving the specified edges, bucketed by chunk.
+		 */
+		static ChunkSource of(List<Line2D> edges) {
+			final Map<Long, List<Line2D>> buckets = new HashMap<>();
+
+			for (Line2D edge : edges) {
+				final Rectangle2D bounds = edge.getBounds2D();
+				final int minX = chunkOf(bounds.getMinX()), maxX = chunkOf(bounds.getMaxX());
+				final int minY = chunkOf(bounds.getMinY()), maxY = chunkOf(bounds.getMaxY());
+
+				for (int cx = minX; cx <= maxX; cx++) {
+					for (int cy = minY; cy <= maxY; cy++) {
+						if (edge.intersects(chunkBounds(cx, cy)))
+							buckets.computeIfAbsent(keyOf(cx, cy), k -> new ArrayList<>()).add(edge);
+					}
+				}
+			}
+
+			return (cx, cy) -> buckets.getOrDefault(keyOf(cx, cy), Collections.emptyList());
+		}
+	}
+
+	private final ChunkSource source;
+	/**
+	 * Chunks within this many chunks of the car's chunk are kept resident.
+	 */
+	private final int radius;
+
+	private final Map<Long, List<Line2D>> cache;
+
+	private long currentChunk;
+	private boolean loaded = false;
+
+	/**
+	 * Edges of the resident chunks. Replaced, never modified, so other threads may read
+	 * it without locking.
+	 */
+	private volatile List<Line2D> residentEdges = Collections.emptyList();
+
+	/**
+	 * @param reach	the distance around the car that must always be resident, the
+	 *              sensor range plus the size of the car
+	 */
+	public ChunkedTrack(ChunkSource source, double reach) {
+		this.source = source;
+		radius = (int) Math.ceil(reach / CHUNK_SIZE);
+
+		final int side = 2 * radius + 1;
+		// room for the resident chunks plus one extra ring, so turning back is cheap
+		final int capacity = (side + 2) * (side + 2);
+
+		cache = new LinkedHashMap<Long, List<Line2D>>(capacity, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, List<Line2D>> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Makes the chunks around the specified location resident. Cheap unless the location
+	 * moved into another chunk since the last call.
+	 */
+	void update(double x, double y) {
+		final int cx = chunkOf(x), cy = chunkOf(y);
+		final long chunk = keyOf(cx, cy);
+
+		if (loaded && chunk == currentChunk)
+			return;
+		currentChunk = chunk;
+		loaded = true;
+
+		// edges spanning several chunks are only listed once
+		final Set<Line2D> edges = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		for (int i = cx - radius; i <= cx + radius; i++) {
+			for (int j = cy - radius; j <= cy + radius; j++) {
+				final int chunkX = i, chunkY = j;
+				edges.addAll(cache.computeIfAbsent(
+						keyOf(chunkX, chunkY),
+						k -> source.loadChunk(chunkX, chunkY)));
+			}
+		}
+
+		residentEdges = Collections.unmodifiableList(new ArrayList<>(edges));
+	}
+
+	/**
+	 * Returns the edges of all resident chunks.
+	 */
+	List<Line2D> getResidentEdges() { return residentEdges; }
+
+
+	static int chunkOf(double coordinate) {
+		return (int) Math.floor(coordinate / CHUNK_SIZE);
+	}
+
+	static Rectangle2D chunkBounds(int cx, int cy) {
+		return new Rectangle2D.Double(cx * CHUNK_SIZE, cy * CHUNK_SIZE, CHUNK_SIZE, CHUNK_SIZE);
+	}
+
+	private static long keyOf(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,109 @@
+package simulation;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * An endless track winding along the positive x axis, generated chunk by chunk from a
+ * seed. The centerline is a sum of cosine waves, so any chunk can be generated on its own
+ * without generating the track before it.
+ * <p>
+ * The track starts at the origin facing the positive x direction.
+ */
+public class InfiniteTrack implements ChunkedTrack.ChunkSource {
+	private static final int WAVES = 4;
+	private static final double SEGMENT_LENGTH = 20;
+
+	private final double width;
+	private final double[] amplitudes = new double[WAVES];
+	private final double[] frequencies = new double[WAVES];
+
+	public InfiniteTrack(long seed) {
+		this(seed, 150);
+	}
+
+	public InfiniteTrack(long seed, double width) {
+		this.width = width;
+
+		final Random random = new Random(seed);
+		for (int i = 0; i < WAVES; i++) {
+			// wavelengths from about 1000 to 5000 U, longer waves swing wider
+			final double wavelength = 1000 + random.nextDouble() * 4000;
+			frequencies[i] = 2 * Math.PI / wavelength;
+			amplitudes[i] = random.nextDouble() * wavelength / 20;
+		}
+	}
+
+	/**
+	 * The y coordinate of the centerline at the specified x. Both the value and the slope
+	 * are 0 at the origin.
+	 */
+	double centerY(double x) {
+		double y = 0;
+		for (int i = 0; i < WAVES; i++)
+			y += amplitudes[i] * (1 - Math.cos(frequencies[i] * x));
+		return y;
+	}
+
+	/**
+	 * Edges crossing into a chunk above or below are clipped to the chunk, so that each
+	 * part is listed by one chunk only.
+	 */
+	@Override
+	public List<Line2D> loadChunk(int cx, int cy) {
+		final List<Line2D> edges = new ArrayList<>();
+		if (cx < 0)
+			return edges;
+
+		final Rectangle2D bounds = ChunkedTrack.chunkBounds(cx, cy);
+		final double start = bounds.getMinX(), end = bounds.getMaxX();
+
+		for (double x = start; x < end; x += SEGMENT_LENGTH) {
+			final double next = Math.min(x + SEGMENT_LENGTH, end);
+			final double y0 = centerY(x), y1 = centerY(next);
+
+			addClipped(edges, bounds, x, y0 + width / 2, next, y1 + width / 2);
+			addClipped(edges, bounds, x, y0 - width / 2, next, y1 - width / 2);
+		}
+
+		// close off the start of the track
+		if (cx == 0)
+			addClipped(edges, bounds, 0, -width / 2, 0, width / 2);
+
+		return edges;
+	}
+
+	/**
+	 * Adds the part of the edge between the top and bottom of the chunk, if any. An edge
+	 * along the boundary of two chunks belongs to the lower one, as chunks are half-open.
+	 */
+	private static void addClipped(List<Line2D> edges, Rectangle2D bounds,
+								   double x0, double y0, double x1, double y1) {
+		final double minY = bounds.getMinY(), maxY = bounds.getMaxY();
+
+		if (y0 == y1) {
+			if (y0 >= minY && y0 < maxY)
+				edges.add(new Line2D.Double(x0, y0, x1, y1));
+			return;
+		}
+
+		// where along the edge it crosses the top and bottom, 0 at its start and 1 at its end
+		double t0 = (minY - y0) / (y1 - y0), t1 = (maxY - y0) / (y1 - y0);
+		if (t0 > t1) {
+			final double t = t0;
+			t0 = t1;
+			t1 = t;
+		}
+		t0 = Math.max(t0, 0);
+		t1 = Math.min(t1, 1);
+		if (t0 >= t1)
+			return;
+
+		edges.add(new Line2D.Double(
+				t0 == 0 ? x0 : x0 + t0 * (x1 - x0), t0 == 0 ? y0 : y0 + t0 * (y1 - y0),
+				t1 == 1 ? x1 : x0 + t1 * (x1 - x0), t1 == 1 ? y1 : y0 + t1 * (y1 - y0)));
+	}
+}
@@ -2,8 +2,6 @@ package simulation;
 
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * A sensor that is capable of measuring a distance. It measures the
@@ -18,14 +16,11 @@ public class Sensor {
 	 */
 	private final double direction;
 	private final Car car;
-	private final World world;
 	private Line2D ray;	//a line to check for intersections
 	//the range of the sensor
-	private static final double RANGE = 500;
+	static final double RANGE = 500;
 
-	//update this sensor
-	private static final ExecutorService POOL = Executors.newCachedThreadPool();
-	private volatile double distance;
+	private double distance;
 
 	/**
 	 * Construct a sensor facing the specified direction on the specified
@@ -36,28 +31,16 @@ public class Sensor {
 	public Sensor(Car car, double direction) {
 		this.direction = direction;
 		this.car = car;
-		this.world = car.getWorld();
 		ray = new Line2D.Double();
+	}
 
-		POOL.submit(() -> {
-			while (!world.isStopped()) {
-				try {
-					//sensor sleeps less
-					Thread.sleep(Simulation.UPDATE_INTERVAL /2);
-
-					if (world.isPaused())
-						world.waitForUnpause();
-
-					updateRay();
-					distance = calculateDistance();
-				}
-				catch (InterruptedException e) {
-					System.err.println("Sensor interrupted");
-					e.printStackTrace();
-					break;
-				}
-			}
-		});
+	/**
+	 * Measures the distance again from where the car is now. The world calls this once
+	 * every tick, so readings always belong to the tick they are read in.
+	 */
+	void update() {
+		updateRay();
+		distance = calculateDistance();
 	}
 
 	/**
@@ -1,6 +1,8 @@
 package simulation;
 
 import network.Network;
+import network.NetworkCompiler;
+import network.NetworkFunction;
 import utils.MapIO;
 import utils.NetworkIO;
 
@@ -12,6 +14,8 @@ import java.util.concurrent.*;
 
 public class Simulation {
 	public static final long UPDATE_INTERVAL = 10;	//ms
+	/** Runs of at least this many ticks, or without limit, steer with a compiled network. */
+	private static final long COMPILE_TICKS = 2000;
 
 	private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
 
@@ -19,14 +23,16 @@ public class Simulation {
 	public static void main(String[] args) {
 		/*
 		2 arguments, both optional:
-		map
+		map, or "infinite" for an endless generated track
 		network
 		 */
-		final List<Line2D> edges;
-		if (args.length >= 1)
-			edges = MapIO.readMapSilently(args[0]);
+		final ChunkedTrack.ChunkSource track;
+		if (args.length >= 1 && args[0].equals("infinite"))
+			track = new InfiniteTrack(System.nanoTime());
+		else if (args.length >= 1)
+			track = ChunkedTrack.ChunkSource.of(MapIO.readMapSilently(args[0]));
 		else
-			edges = Collections.emptyList();
+			track = ChunkedTrack.ChunkSource.of(Collections.emptyList());
 
 		final Network network;
 		if (args.length >= 2)
@@ -34,7 +40,7 @@ public class Simulation {
 		else
 			network = null;
 
-		runSimulation(edges, network, true);
+		runSimulation(track, network, true);
 
 		shutdown();
 
@@ -48,6 +54,7 @@ public class Simulation {
 	public static class Result {
 		private long operationsConsumed;
 		private double completion;
+		private double endX, endY;
 
 		Result() {}
 		Result(long operations, double completion) {
@@ -63,59 +70,125 @@ public class Simulation {
 
 		public synchronized void incrementOperations() { operationsConsumed++; }
 		public synchronized void increaseCompletionBy(double amount) { completion += amount; }
+
+		/**
+		 * Returns the coordinates of the car when the simulation ended.
+		 */
+		public synchronized double getEndX() { return endX; }
+		public synchronized double getEndY() { return endY; }
+
+		public synchronized void setEnd(double x, double y) {
+			endX = x;
+			endY = y;
+		}
 	}
 
-	public static Result runSimulation(List<Line2D> edges, Network network, boolean doGraphics) {
-		final World world = World.newInstance(edges, doGraphics);
-		final Car CAR = world.getCar();
+	/**
+	 * Where a car starts, relative to the usual start.
+	 */
+	public static class StartPose {
+		/**
+		 * The usual start.
+		 */
+		public static final StartPose DEFAULT = new StartPose(0, 0, 0);
 
-		final Result result = new Result();
+		private final double xOffset, yOffset, heading;
 
-		Future<?> simFuture = EXECUTOR.submit(() -> {
-			final Result r = world.run();
-			result.setOperations(r.getOperations());
-			result.setCompletion(r.getCompletion());
-			world.cleanUp();
-		});
-		Future<?> netFuture = null;
+		public StartPose(double xOffset, double yOffset, double heading) {
+			this.xOffset = xOffset;
+			this.yOffset = yOffset;
+			this.heading = heading;
+		}
 
-		if (network != null) {	//null for manual control
-			if (network.getOutputNodes().size() != 5) {    //make this not a constant?
-				System.err.println("Bad network: need exactly 5 output nodes");
-			}
-			else {
-				netFuture = EXECUTOR.submit(() -> {
+		public double getXOffset() { return xOffset; }
+		public double getYOffset() { return yOffset; }
+		public double getHeading() { return heading; }
+	}
 
-					while (!world.isStopped()) {
+	public static Result runSimulation(List<Line2D> edges, Network network, boolean doGraphics) {
+		return runSimulation(ChunkedTrack.ChunkSource.of(edges), network, doGraphics);
+	}
 
-						List<Double> results =
-								network.compute(
-										scaleToRange(CAR.getReadings(), 0, 500, 0, 1)
-								);
+	public static Result runSimulation(ChunkedTrack.ChunkSource track,
+									  Network network, boolean doGraphics) {
+		return runSimulation(track, network, doGraphics, 0);
+	}
 
-						CAR.setTurningLeft(results.get(0) > 0.5);
-						CAR.setTurningRight(results.get(1) > 0.5);
-						CAR.setAccelerating(results.get(2) > 0.5);
-						CAR.setDecelerating(results.get(3) > 0.5);
-						CAR.setBraking(results.get(4) > 0.5);
+	/**
+	 * Runs a simulation that ends when the car crashes or after the specified number of
+	 * ticks.
+	 * @param maxTicks	the most ticks to run for, 0 for no limit
+	 */
+	public static Result runSimulation(ChunkedTrack.ChunkSource track,
+									  Network network, boolean doGraphics, long maxTicks) {
+		return runSimulation(track, network, doGraphics, maxTicks, UPDATE_INTERVAL);
+	}
 
-						try {
-							Thread.sleep(UPDATE_INTERVAL);
+	/**
+	 * Runs a simulation that ends when the car crashes or after the specified number of
+	 * ticks, each advancing the simulated time by the time step.
+	 * @param maxTicks	the most ticks to run for, 0 for no limit
+	 * @param timeStep	the simulated time of one tick in ms
+	 */
+	public static Result runSimulation(ChunkedTrack.ChunkSource track, Network network,
+									  boolean doGraphics, long maxTicks, double timeStep) {
+		return runSimulation(track, network, doGraphics, maxTicks, timeStep, StartPose.DEFAULT);
+	}
 
-							if (world.isPaused())
-								world.waitForUnpause();
-						}
-						catch (InterruptedException e) {
-							e.printStackTrace();
-						}
+	/**
+	 * Runs a simulation that ends when the car crashes or after the specified number of
+	 * ticks, with the car starting at the specified pose.
+	 * @param maxTicks	the most ticks to run for, 0 for no limit
+	 * @param timeStep	the simulated time of one tick in ms
+	 */
+	public static Result runSimulation(ChunkedTrack.ChunkSource track, Network network,
+									  boolean doGraphics, long maxTicks, double timeStep,
+									  StartPose start) {
+		final World world = World.newInstance(track, doGraphics, timeStep);
+		world.placeCar(start);
+		final Car CAR = world.getCar();
 
-					}
+		final Result result = new Result();
 
-				});
+		Runnable control = null;
+		if (network != null) {	//null for manual control
+			if (network.getOutputNodes().size() != 5) {    //make this not a constant?
+				System.err.println("Bad network: need exactly 5 output nodes");
+			}
+			else {
+				//the network reads the sensors and steers once per tick, through its own
+				//phenotype so that simulations may share the network, and every run starts
+				//with nothing remembered
+				final NetworkFunction phenotype = maxTicks == 0 || maxTicks >= COMPILE_TICKS
+						? NetworkCompiler.compile(network)
+						: network.getPhenotype();
+				final double[] inputs = new double[network.getInputNodes().size()];
+				final double[] results = new double[5];
+				control = () -> {
+					final List<Double> readings = scaleToRange(CAR.getReadings(), 0, 500, 0, 1);
+					for (int i = 0; i < inputs.length; i++)
+						inputs[i] = i < readings.size() ? readings.get(i) : 0;
+					phenotype.compute(inputs, results);
+
+					CAR.setTurningLeft(results[0] > 0.5);
+					CAR.setTurningRight(results[1] > 0.5);
+					CAR.setAccelerating(results[2] > 0.5);
+					CAR.setDecelerating(results[3] > 0.5);
+					CAR.setBraking(results[4] > 0.5);
+				};
 			}
 		}
 
-		awaitCompletion(simFuture, netFuture);
+		final Runnable finalControl = control;
+		Future<?> simFuture = EXECUTOR.submit(() -> {
+			final Result r = world.run(maxTicks, finalControl);
+			result.setOperations(r.getOperations());
+			result.setCompletion(r.getCompletion());
+			result.setEnd(r.getEndX(), r.getEndY());
+			world.cleanUp();
+		});
+
+		awaitCompletion(simFuture);
 
 		return result;
 	}
@@ -9,7 +9,6 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -23,15 +22,19 @@ public class World extends JPanel implements KeyListener {
 	private static final int INITIAL_X = WIDTH / 2, INITIAL_Y = -HEIGHT / 2;
 
 	/**
-	 * Defines the edges of the track.
+	 * Defines the edges of the track. Only the chunks around the car are resident.
 	 */
-	private final List<Line2D> TRACK_EDGES;
-	private final List<Line2D> shiftedEdges;	//temporary edges with shifted coordinates
+	private final ChunkedTrack track;
 
-	private final Car CAR = new Car(this, INITIAL_X, INITIAL_Y);
+	private final Car CAR;
 
 	private final JFrame holdingFrame;
 
+	/**
+	 * Whether ticks are paced in real time, so they can be watched.
+	 */
+	private final boolean realTime;
+
 	//these may only be modified in response to key events
 	private volatile boolean stop = false;    //for stopping simulation and network
 	private volatile boolean verbose = false;    //for verbose output
@@ -48,16 +51,18 @@ public class World extends JPanel implements KeyListener {
 	}
 
 
-	private World(JFrame frame, List<Line2D> trackEdges) {
+	/**
+	 * @param timeStep	the simulated time of one tick in ms
+	 */
+	private World(JFrame frame, ChunkedTrack.ChunkSource trackSource, double timeStep,
+				  boolean realTime) {
 		holdingFrame = frame;
-		TRACK_EDGES = Collections.unmodifiableList(trackEdges);
-
-		//init shiftedEdges
-		final List<Line2D> edges = new ArrayList<>();
-		TRACK_EDGES.stream()
-				.map(edge -> new Line2D.Double(edge.getP1(), edge.getP2()))
-				.forEach(edges::add);
-		shiftedEdges = Collections.unmodifiableList(edges);
+		this.realTime = realTime;
+		CAR = new Car(this, INITIAL_X, INITIAL_Y, timeStep);
+		//sensors must see everything in range wherever the car is within its chunk
+		track = new ChunkedTrack(trackSource, Sensor.RANGE + CAR.getWidth());
+		track.update(CAR.getXCoordinate(), CAR.getYCoordinate());
+		CAR.updateSensors();
 	}
 
 	public static void main(String[] args) {
@@ -66,14 +71,29 @@ public class World extends JPanel implements KeyListener {
 
 		World world = World.newInstance(edges, true);
 
-		world.run();
+		world.run(0, null);
 
 		world.cleanUp();
 	}
 
 	static World newInstance(List<Line2D> trackEdges, boolean doGraphics) {
+		return newInstance(ChunkedTrack.ChunkSource.of(trackEdges), doGraphics);
+	}
+
+	static World newInstance(ChunkedTrack.ChunkSource trackSource, boolean doGraphics) {
+		return newInstance(trackSource, doGraphics, Simulation.UPDATE_INTERVAL);
+	}
+
+	/**
+	 * @param timeStep	the simulated time of one tick in ms. A larger time step covers the
+	 *                  same simulated time in fewer ticks. With graphics, ticks take
+	 *                  {@link Simulation#UPDATE_INTERVAL} of real time; without, they run
+	 *                  as fast as they can.
+	 */
+	static World newInstance(ChunkedTrack.ChunkSource trackSource, boolean doGraphics,
+							 double timeStep) {
 		JFrame frame = new JFrame("( ͡° ͜ʖ ͡°)");
-		World world = new World(frame, trackEdges);
+		World world = new World(frame, trackSource, timeStep, doGraphics);
 
 		if (doGraphics) {
 			world.setPreferredSize(new Dimension(WIDTH, HEIGHT));
@@ -88,17 +108,32 @@ public class World extends JPanel implements KeyListener {
 		return world;
 	}
 
-	Result run() {
+	/**
+	 * Runs the simulation until the car crashes, the user quits or the specified number of
+	 * ticks has passed. The completion of the result is the distance the car drove.
+	 * @param maxTicks	the most ticks to run for, 0 for no limit
+	 * @param control	run before every tick to steer the car, null for the keyboard. As
+	 *                  it runs in step with the simulation, the same control always drives
+	 *                  the same way.
+	 */
+	Result run(long maxTicks, Runnable control) {
 		Result result = new Result();
 
 		while (!stop) {
 			try {
-				Thread.sleep(Simulation.UPDATE_INTERVAL);
+				if (realTime)
+					Thread.sleep(Simulation.UPDATE_INTERVAL);
 
 				if (isPaused())
 					waitForUnpause();
 
+				if (control != null)
+					control.run();
+
+				final double x = CAR.getXCoordinate(), y = CAR.getYCoordinate();
 				updateSimulation();
+				result.increaseCompletionBy(
+						Math.hypot(CAR.getXCoordinate() - x, CAR.getYCoordinate() - y));
 
 				if (CAR.hasCrahsed()) stop = true;
 			}
@@ -109,18 +144,22 @@ public class World extends JPanel implements KeyListener {
 			}
 
 			result.incrementOperations();
-		}
 
-		// TODO evaluate distance traveled
+			if (maxTicks > 0 && result.getOperations() >= maxTicks)
+				stop = true;
+		}
 
+		result.setEnd(CAR.getXCoordinate(), CAR.getYCoordinate());
 		return result;
 	}
 
 	/**
-	 * Update car, update graphics.
+	 * Update car, update sensors, update graphics.
 	 */
 	private void updateSimulation() {
 		CAR.advance();
+		track.update(CAR.getXCoordinate(), CAR.getYCoordinate());
+		CAR.updateSensors();
 		repaint();
 	}
 
@@ -134,6 +173,18 @@ public class World extends JPanel implements KeyListener {
 	void resetCar() {
 		CAR.setTo(INITIAL_X, INITIAL_Y);
 		CAR.setHeading(0);
+		CAR.updateSensors();
+	}
+
+	/**
+	 * Moves the car from where it starts by the offsets of the pose and turns it to the
+	 * heading of the pose.
+	 */
+	void placeCar(Simulation.StartPose pose) {
+		CAR.setTo(CAR.getXCoordinate() + pose.getXOffset(), CAR.getYCoordinate() + pose.getYOffset());
+		CAR.setHeading(pose.getHeading());
+		track.update(CAR.getXCoordinate(), CAR.getYCoordinate());
+		CAR.updateSensors();
 	}
 
 
@@ -175,15 +226,12 @@ public class World extends JPanel implements KeyListener {
 		shiftX = -CAR.getXCoordinate();
 		shiftY = -CAR.getYCoordinate();
 
-		for (int i = 0; i < TRACK_EDGES.size(); i++) {
-			final Line2D original = TRACK_EDGES.get(i);
-			final Line2D shifted = shiftedEdges.get(i);
+		final AffineTransform originalTransform = g.getTransform();
+		g.translate(shiftX, shiftY);
 
-			shifted.setLine(original);
-			shiftEdge(shifted, shiftX, shiftY);
-		}
+		getTrackEdges().forEach(g::draw);
 
-		shiftedEdges.forEach(g::draw);
+		g.setTransform(originalTransform);
 	}
 
 	private void drawCar(Graphics2D g) {
@@ -235,21 +283,10 @@ public class World extends JPanel implements KeyListener {
 		g.setColor(originalColor);    //reset color
 	}
 
-	/**
-	 * Shifts the specified Line2D by the specified x and y values.
-	 */
-	private static void shiftEdge(Line2D line, double x, double y) {
-		line.setLine(
-				line.getX1()+x,
-				line.getY1()+y,
-				line.getX2()+x,
-				line.getY2()+y);
-	}
-
 	//////////////////////////////
 	//some getters
 
-	List<Line2D> getTrackEdges() { return TRACK_EDGES; }
+	List<Line2D> getTrackEdges() { return track.getResidentEdges(); }
 
 	Car getCar() { return CAR; }
 
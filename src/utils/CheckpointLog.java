@@ -0,0 +1,538 @@
+package utils;
+
+import ga.Config;
+import network.Genome;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only log of every generation of a run, with an index so that any generation
+ * or any single genome can be read back directly.
+ * <p>
+ * A run directory holds two files. {@value #LOG_FILE} stores one record per generation:
+ * a header with the generation number, the genome count and the config, the
+ * length-prefixed genomes, and finally a table of the offset of every genome.
+ * {@value #INDEX_FILE} stores a fixed size entry per record, and is only written once the
+ * record is on disk. A record without an index entry is an interrupted write and is
+ * discarded when the log is opened again.
+ * <p>
+ * Most genomes carry over between generations with only a few changed genes, so a genome
+ * is normally stored as a delta from a genome of the previous record (see
+ * {@link GenomeDelta}): itself if it survived, otherwise the genome that was at the
+ * same position. Every few records a keyframe stores all genomes in full (see
+ * {@link NetworkIO#encode}), which bounds how far back a read has to go.
+ * <p>
+ * Genomes are encoded on the calling thread, which snapshots them, and written on a
+ * background thread so appending never waits for the disk.
+ */
+public class CheckpointLog implements Closeable {
+	public static final String LOG_FILE = "generations.log";
+	public static final String INDEX_FILE = "generations.idx";
+
+	private static final int RECORD_MAGIC = 0x4B4843;	//"CHK" in little-endian
+	private static final int VERSION = 2;
+	private static final int DEFAULT_KEYFRAME_INTERVAL = 10;
+
+	private static final byte FULL = 0, DELTA = 1;
+	private static final int KEYFRAME_FLAG = 1;
+	private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES + 2 * Integer.BYTES;
+	/**
+	 * generation, record offset, genome table offset, genome count, flags
+	 */
+	private static final int INDEX_ENTRY_BYTES = 3 * Long.BYTES + 2 * Integer.BYTES;
+
+	/**
+	 * One index entry, held in memory for every generation in the log.
+	 */
+	private static class Entry {
+		private final long generation, recordOffset, tableOffset;
+		private final int count;
+		private final boolean keyframe;
+
+		private Entry(long generation, long recordOffset, long tableOffset, int count, int flags) {
+			this.generation = generation;
+			this.recordOffset = recordOffset;
+			this.tableOffset = tableOffset;
+			this.count = count;
+			keyframe = (flags & KEYFRAME_FLAG) != 0;
+		}
+	}
+
+	/**
+	 * A generation read back from the log.
+	 */
+	public static class Checkpoint {
+		private final long generation;
+		private final List<Genome> population;
+		private final Config config;
+
+		private Checkpoint(long generation, List<Genome> population, Config config) {
+			this.generation = generation;
+			this.population = population;
+			this.config = config;
+		}
+
+		public long getGeneration() { return generation; }
+		public List<Genome> getPopulation() { return population; }
+		public Config getConfig() { return config; }
+	}
+
+	private final Path directory;
+	private final FileChannel log, index;
+	private final List<Entry> entries = new ArrayList<>();
+
+	/**
+	 * Position the next record is written to. Only touched by the writer thread.
+	 */
+	private long end;
+
+	private final int keyframeInterval;
+	private int sinceKeyframe;
+	/**
+	 * The previous generation as appended, deltas are taken against it.
+	 */
+	private Genome[] previous;
+	private final Map<Genome, Integer> previousPositions = new IdentityHashMap<>();
+	/**
+	 * Set when a write fails, deltas cannot be read without the record before them.
+	 * Cleared by the next keyframe.
+	 */
+	private volatile boolean broken = false;
+
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+		final Thread thread = new Thread(r, "checkpoint-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private CheckpointLog(Path directory, int keyframeInterval) throws IOException {
+		if (keyframeInterval < 1)
+			throw new IllegalArgumentException("Bad keyframe interval: " + keyframeInterval);
+
+		this.directory = directory;
+		this.keyframeInterval = keyframeInterval;
+		log = FileChannel.open(directory.resolve(LOG_FILE),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index = FileChannel.open(directory.resolve(INDEX_FILE),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		recover();
+	}
+
+	/**
+	 * Opens the log in the specified run directory, creating it if needed. Writes left
+	 * incomplete by a crash are discarded.
+	 */
+	public static CheckpointLog open(String directory) throws IOException {
+		return open(directory, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * @param keyframeInterval	a keyframe is written every this many records
+	 */
+	public static CheckpointLog open(String directory, int keyframeInterval) throws IOException {
+		final Path path = Paths.get(directory);
+		Files.createDirectories(path);
+		return new CheckpointLog(path, keyframeInterval);
+	}
+
+	/**
+	 * Opens a log in a new directory for a new run.
+	 * @param prefix	path prefix of the run directory, a timestamp is appended to it
+	 */
+	public static CheckpointLog create(String prefix) throws IOException {
+		return create(prefix, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * @param keyframeInterval	a keyframe is written every this many records
+	 */
+	public static CheckpointLog create(String prefix, int keyframeInterval) throws IOException {
+		return new CheckpointLog(FileNames.newTimestampedDirectory(prefix), keyframeInterval);
+	}
+
+	/**
+	 * Returns true if the specified directory holds a checkpoint log.
+	 */
+	public static boolean isLog(String directory) {
+		return Files.isRegularFile(Paths.get(directory, INDEX_FILE));
+	}
+
+	private void recover() throws IOException {
+		final long entryCount = index.size() / INDEX_ENTRY_BYTES;
+
+		final ByteBuffer buffer =
+				ByteBuffer.allocate((int) entryCount * INDEX_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(index, buffer, 0);
+		buffer.flip();
+
+		end = 0;
+		for (long i = 0; i < entryCount; i++) {
+			final Entry entry = new Entry(
+					buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getInt());
+
+			final long recordEnd = entry.tableOffset + (long) entry.count * Long.BYTES;
+			if (recordEnd > log.size())
+				break;	//index entry for data that never made it to disk
+
+			entries.add(entry);
+			end = recordEnd;
+		}
+
+		// drop partial records and index entries
+		log.truncate(end);
+		index.truncate((long) entries.size() * INDEX_ENTRY_BYTES);
+	}
+
+
+	/**
+	 * Appends the specified generation. The genomes are encoded before this method
+	 * returns, so they may be modified right after; the write itself happens in the
+	 * background.
+	 * <p>
+	 * Must not be called from several threads at once.
+	 */
+	public void append(long generation, List<Genome> population, Config config) {
+		final byte[] configBytes = ConfigIO.stringOf(config).getBytes(StandardCharsets.UTF_8);
+
+		final boolean keyframe =
+				previous == null || broken || ++sinceKeyframe >= keyframeInterval;
+		if (keyframe)
+			sinceKeyframe = 0;
+
+		final Genome[] snapshots = new Genome[population.size()];
+		final byte[][] genomes = new byte[population.size()][];
+
+		int size = RECORD_HEADER_BYTES + configBytes.length;
+		for (int i = 0; i < population.size(); i++) {
+			snapshots[i] = population.get(i).copy();
+			genomes[i] = encodeGenome(population.get(i), snapshots[i], i, keyframe);
+			size += Integer.BYTES + genomes[i].length;
+		}
+
+		previous = snapshots;
+		previousPositions.clear();
+		for (int i = 0; i < population.size(); i++)
+			previousPositions.put(population.get(i), i);
+
+		final ByteBuffer record = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		record.putInt(RECORD_MAGIC)
+				.putInt(VERSION)
+				.putLong(generation)
+				.putInt(population.size())
+				.putInt(configBytes.length)
+				.put(configBytes);
+
+		// offsets relative to the record, made absolute once its position is known
+		final long[] offsets = new long[population.size()];
+		for (int i = 0; i < population.size(); i++) {
+			offsets[i] = record.position();
+			record.putInt(genomes[i].length).put(genomes[i]);
+		}
+		record.flip();
+
+		final int flags = keyframe ? KEYFRAME_FLAG : 0;
+		writer.submit(() -> {
+			if (broken && !keyframe) {
+				System.err.println("Skipped checkpoint of generation " + generation +
+						", waiting for a keyframe after a failed write");
+				return;
+			}
+
+			try {
+				write(generation, record, offsets, flags);
+				broken = false;
+			}
+			catch (IOException e) {
+				broken = true;
+				System.err.println("Failed to write checkpoint of generation " + generation);
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * Encodes a genome as a delta from the previous record where possible, in full
+	 * otherwise. Either way the first byte tells which.
+	 */
+	private byte[] encodeGenome(Genome member, Genome snapshot, int position,
+								boolean keyframe) {
+		final int fullSize = NetworkIO.encodedSize(snapshot);
+
+		if (!keyframe) {
+			final int base = previousPositions.getOrDefault(
+					member, position < previous.length ? position : -1);
+
+			final byte[] delta = base < 0 ? null : GenomeDelta.encode(previous[base], snapshot);
+			if (delta != null && delta.length < fullSize) {
+				return ByteBuffer.allocate(Byte.BYTES + Integer.BYTES + delta.length)
+						.order(ByteOrder.LITTLE_ENDIAN)
+						.put(DELTA)
+						.putInt(base)
+						.put(delta)
+						.array();
+			}
+		}
+
+		final ByteBuffer buffer =
+				ByteBuffer.allocate(Byte.BYTES + fullSize).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(FULL);
+		NetworkIO.encode(snapshot, buffer);
+		return buffer.array();
+	}
+
+	private void write(long generation, ByteBuffer record, long[] offsets, int flags)
+			throws IOException {
+		final long recordOffset = end;
+		final long tableOffset = recordOffset + record.remaining();
+
+		final ByteBuffer table =
+				ByteBuffer.allocate(offsets.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		for (long offset : offsets)
+			table.putLong(recordOffset + offset);
+		table.flip();
+
+		writeFully(log, record, recordOffset);
+		writeFully(log, table, tableOffset);
+		log.force(false);
+
+		final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		entry.putLong(generation)
+				.putLong(recordOffset)
+				.putLong(tableOffset)
+				.putInt(offsets.length)
+				.putInt(flags);
+		entry.flip();
+
+		synchronized (entries) {
+			writeFully(index, entry, (long) entries.size() * INDEX_ENTRY_BYTES);
+			index.force(false);
+			entries.add(new Entry(generation, recordOffset, tableOffset, offsets.length, flags));
+		}
+
+		end = tableOffset + offsets.length * (long) Long.BYTES;
+	}
+
+
+	/**
+	 * Returns the generations stored in the log, in the order they were appended.
+	 * Generations still being written are not included.
+	 */
+	public List<Long> getGenerations() {
+		final List<Long> generations = new ArrayList<>();
+		synchronized (entries) {
+			for (Entry entry : entries)
+				generations.add(entry.generation);
+		}
+		return generations;
+	}
+
+	/**
+	 * Returns the last generation stored in the log, or -1 if the log is empty.
+	 */
+	public long getLastGeneration() {
+		synchronized (entries) {
+			return entries.isEmpty() ? -1 : entries.get(entries.size() - 1).generation;
+		}
+	}
+
+	/**
+	 * Reads back the whole of the specified generation.
+	 */
+	public Checkpoint read(long generation) throws IOException {
+		final int position = find(generation);
+
+		final Entry entry;
+		int keyframe = position;
+		synchronized (entries) {
+			entry = entries.get(position);
+			while (!entries.get(keyframe).keyframe)
+				keyframe--;
+		}
+
+		// replay the records since the last keyframe
+		Genome[] snapshots = null;
+		for (int p = keyframe; p <= position; p++)
+			snapshots = readRecord(p, snapshots);
+
+		return new Checkpoint(generation, new ArrayList<>(Arrays.asList(snapshots)), readConfig(entry));
+	}
+
+	/**
+	 * Reads back the last generation in the log, or returns null if the log is empty.
+	 */
+	public Checkpoint readLast() throws IOException {
+		final long last = getLastGeneration();
+		return last < 0 ? null : read(last);
+	}
+
+	/**
+	 * Reads back a single genome of the specified generation.
+	 * @param i	the position of the genome in the population when it was appended
+	 */
+	public Genome readGenome(long generation, int i) throws IOException {
+		return readSnapshot(find(generation), i);
+	}
+
+	private Config readConfig(Entry entry) throws IOException {
+		final ByteBuffer header =
+				ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(log, header, entry.recordOffset);
+		header.flip();
+
+		if (header.getInt() != RECORD_MAGIC || header.getInt() != VERSION)
+			throw new IOException("Corrupt checkpoint of generation " + entry.generation);
+		header.getLong();
+		header.getInt();
+
+		final ByteBuffer configBytes = ByteBuffer.allocate(header.getInt());
+		readFully(log, configBytes, entry.recordOffset + RECORD_HEADER_BYTES);
+		return ConfigIO.parseConfig(new String(configBytes.array(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads all genomes of the record at the specified position in the index.
+	 * @param previous	the genomes of the record before, null for keyframes
+	 */
+	private Genome[] readRecord(int position, Genome[] previous)
+			throws IOException {
+		final Entry entry = entryAt(position);
+
+		final Genome[] snapshots = new Genome[entry.count];
+		for (int i = 0; i < entry.count; i++) {
+			final ByteBuffer genome = readGenomeBytes(entry, i);
+			snapshots[i] = decodeGenome(entry, i, genome, base -> previous[base]);
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Reads a single genome, following its chain of deltas back to a full genome.
+	 */
+	private Genome readSnapshot(int position, int i) throws IOException {
+		final Entry entry = entryAt(position);
+		if (i < 0 || i >= entry.count)
+			throw new IndexOutOfBoundsException("Generation " + entry.generation + " has no genome " + i);
+
+		return decodeGenome(entry, i, readGenomeBytes(entry, i), base -> readSnapshot(position - 1, base));
+	}
+
+	@FunctionalInterface
+	private interface BaseLookup {
+		Genome get(int i) throws IOException;
+	}
+
+	private static Genome decodeGenome(Entry entry, int i, ByteBuffer genome,
+											   BaseLookup bases) throws IOException {
+		try {
+			if (genome.get() == FULL)
+				return Genome.of(NetworkIO.decode(genome));
+
+			final int base = genome.getInt();
+			return GenomeDelta.apply(bases.get(base), genome);
+		}
+		catch (RuntimeException e) {
+			throw new IOException("Corrupt genome " + i + " of generation " + entry.generation, e);
+		}
+	}
+
+	private ByteBuffer readGenomeBytes(Entry entry, int i) throws IOException {
+		final ByteBuffer offset = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(log, offset, entry.tableOffset + (long) i * Long.BYTES);
+		offset.flip();
+		final long position = offset.getLong();
+
+		final ByteBuffer size = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(log, size, position);
+		size.flip();
+
+		final ByteBuffer genome = ByteBuffer.allocate(size.getInt()).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(log, genome, position + Integer.BYTES);
+		genome.flip();
+		return genome;
+	}
+
+	/**
+	 * Returns the position in the index of the specified generation.
+	 */
+	private int find(long generation) {
+		synchronized (entries) {
+			// the last record of a generation wins, a resumed run may repeat one
+			for (int i = entries.size() - 1; i >= 0; i--) {
+				if (entries.get(i).generation == generation)
+					return i;
+			}
+		}
+		throw new IllegalArgumentException("No checkpoint of generation " + generation);
+	}
+
+	private Entry entryAt(int position) {
+		synchronized (entries) {
+			return entries.get(position);
+		}
+	}
+
+
+	/**
+	 * Waits for pending writes and closes the log.
+	 */
+	@Override
+	public void close() throws IOException {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		log.close();
+		index.close();
+	}
+
+	public void closeSilently() {
+		try {
+			close();
+		}
+		catch (IOException e) {
+			System.err.println("Failed to close checkpoint log: " + directory);
+			e.printStackTrace();
+		}
+	}
+
+	public Path getDirectory() { return directory; }
+
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, position);
+			if (read < 0)
+				throw new IOException("Unexpected end of checkpoint log");
+			position += read;
+		}
+	}
+}
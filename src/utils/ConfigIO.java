@@ -3,32 +3,24 @@ package utils;
 import ga.Config;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.Map;
 
 public class ConfigIO {
 	public static void write(Config config) throws IOException {
-		Date now = new Date();
-		DateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss");
+		write(config, FileNames.newTimestampedFile("Config", ".config"));
+	}
 
-		BufferedWriter writer = new BufferedWriter(
-				new FileWriter("Config_" + format.format(now) + ".config")
-		);
 
-		for (Map.Entry<String, String> entry : config.entrySet()) {
-			writer.write(entry.getKey());
-			writer.write('=');
-			writer.write(entry.getValue());
-			writer.newLine();
+	public static void write(Config config, Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+			writer.write(stringOf(config));
 		}
-
-		writer.close();
 	}
 
 
@@ -44,9 +36,35 @@ public class ConfigIO {
 
 
 	public static Config read(String path) throws IOException {
+		return parseConfig(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+	}
+
+
+	/**
+	 * Returns the String representation of the specified config, one key=value pair per
+	 * line, as stored in config files.
+	 */
+	static String stringOf(Config config) {
+		final StringBuilder builder = new StringBuilder();
+
+		for (Map.Entry<String, String> entry : config.entrySet()) {
+			builder.append(entry.getKey())
+					.append('=')
+					.append(entry.getValue())
+					.append(System.lineSeparator());
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * The reverse of {@link #stringOf(Config)}.
+	 */
+	static Config parseConfig(String s) {
 		final Config config = new Config();
 
-		Files.lines(Paths.get(path))
+		Arrays.stream(s.split("\\R"))
+				.filter(line -> !line.isEmpty())
 				.map(line -> line.split("=", 2))
 				.forEach(pair -> config.put(pair[0], pair[1]));
 
@@ -55,10 +73,10 @@ public class ConfigIO {
 
 
 	public static Config readSilently(String path) {
-		final Config config = null;
+		Config config = null;
 
 		try {
-			read(path);
+			config = read(path);
 		}
 		catch (IOException e) {
 			System.err.println("Failed to read file: " + path);
@@ -0,0 +1,59 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Utility methods for naming output files after the time they are written.
+ */
+public class FileNames {
+
+	/**
+	 * Atomically creates a new empty file named prefix_yyyyMMdd_HHmmss followed by the
+	 * suffix and returns its path. If that name is taken, for example by another write in
+	 * the same second, a counter is appended to the timestamp.
+	 */
+	public static Path newTimestampedFile(String prefix, String suffix) throws IOException {
+		final String base = prefix + "_" + timestamp();
+
+		for (int i = 0; ; i++) {
+			final Path path = Paths.get(i == 0 ? base + suffix : base + "_" + i + suffix);
+			try {
+				return Files.createFile(path);
+			}
+			catch (FileAlreadyExistsException e) {
+				// try the next counter
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #newTimestampedFile(String, String)}, but creates a directory.
+	 */
+	public static Path newTimestampedDirectory(String prefix) throws IOException {
+		final String base = prefix + "_" + timestamp();
+
+		for (int i = 0; ; i++) {
+			final Path path = Paths.get(i == 0 ? base : base + "_" + i);
+			try {
+				if (path.getParent() != null)
+					Files.createDirectories(path.getParent());
+				return Files.createDirectory(path);
+			}
+			catch (FileAlreadyExistsException e) {
+				// try the next counter
+			}
+		}
+	}
+
+	private static String timestamp() {
+		DateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss");
+		return format.format(new Date());
+	}
+}
@@ -0,0 +1,149 @@
+package utils;
+
+import network.Genome;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes a genome as the difference from the genome it descends from.
+ * <p>
+ * A delta lists the hidden nodes removed and added, the connections removed, the
+ * connections whose weight, bias or enabled flag changed, and the connections added,
+ * all in ascending order. A connection keeping its innovation number but moving to
+ * other nodes is recorded as removed and added.
+ */
+final class GenomeDelta {
+	private static final int CHANGED_BYTES = Long.BYTES + 2 * Double.BYTES + Byte.BYTES;
+	private static final int ADDED_BYTES = 3 * Long.BYTES + 2 * Double.BYTES + Byte.BYTES;
+
+	/**
+	 * Encodes the target genome as a delta from the base. Returns null if the input or
+	 * output nodes differ, such genomes must be stored in full.
+	 */
+	static byte[] encode(Genome base, Genome target) {
+		if (!target.hasSameEnds(base))
+			return null;
+
+		// hidden nodes
+		final long[] removedNodes = new long[base.getHiddenCount()];
+		final long[] addedNodes = new long[target.getHiddenCount()];
+		int removedNodeCount = 0, addedNodeCount = 0;
+		for (int i = 0, j = 0; i < base.getHiddenCount() || j < target.getHiddenCount(); ) {
+			if (j >= target.getHiddenCount() ||
+					(i < base.getHiddenCount() && base.getHidden(i) < target.getHidden(j)))
+				removedNodes[removedNodeCount++] = base.getHidden(i++);
+			else if (i >= base.getHiddenCount() || target.getHidden(j) < base.getHidden(i))
+				addedNodes[addedNodeCount++] = target.getHidden(j++);
+			else {
+				i++; j++;
+			}
+		}
+
+		// connections, indices into base for removed ones and into target for the others
+		final int[] removed = new int[base.size()];
+		final int[] changed = new int[target.size()];
+		final int[] added = new int[target.size()];
+		int removedCount = 0, changedCount = 0, addedCount = 0;
+		for (int i = 0, j = 0; i < base.size() || j < target.size(); ) {
+			if (j >= target.size() ||
+					(i < base.size() && base.getInnovation(i) < target.getInnovation(j))) {
+				removed[removedCount++] = i++;
+			}
+			else if (i >= base.size() || target.getInnovation(j) < base.getInnovation(i)) {
+				added[addedCount++] = j++;
+			}
+			else {
+				if (base.getPrevId(i) != target.getPrevId(j) || base.getNextId(i) != target.getNextId(j)) {
+					removed[removedCount++] = i;
+					added[addedCount++] = j;
+				}
+				else if (differs(base.getWeight(i), target.getWeight(j)) ||
+						differs(base.getBias(i), target.getBias(j)) ||
+						base.isEnabled(i) != target.isEnabled(j)) {
+					changed[changedCount++] = j;
+				}
+				i++; j++;
+			}
+		}
+
+		final int size = Double.BYTES +
+				5 * Integer.BYTES +
+				(removedNodeCount + addedNodeCount + removedCount) * Long.BYTES +
+				changedCount * CHANGED_BYTES +
+				addedCount * ADDED_BYTES;
+
+		final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putDouble(target.getFitness());
+
+		buffer.putInt(removedNodeCount);
+		for (int i = 0; i < removedNodeCount; i++)
+			buffer.putLong(removedNodes[i]);
+		buffer.putInt(addedNodeCount);
+		for (int i = 0; i < addedNodeCount; i++)
+			buffer.putLong(addedNodes[i]);
+
+		buffer.putInt(removedCount);
+		for (int i = 0; i < removedCount; i++)
+			buffer.putLong(base.getInnovation(removed[i]));
+
+		buffer.putInt(changedCount);
+		for (int k = 0; k < changedCount; k++) {
+			final int i = changed[k];
+			buffer.putLong(target.getInnovation(i))
+					.putDouble(target.getWeight(i))
+					.putDouble(target.getBias(i))
+					.put((byte) (target.isEnabled(i) ? 1 : 0));
+		}
+
+		buffer.putInt(addedCount);
+		for (int k = 0; k < addedCount; k++) {
+			final int i = added[k];
+			buffer.putLong(target.getInnovation(i))
+					.putLong(target.getPrevId(i))
+					.putLong(target.getNextId(i))
+					.putDouble(target.getWeight(i))
+					.putDouble(target.getBias(i))
+					.put((byte) (target.isEnabled(i) ? 1 : 0));
+		}
+
+		return buffer.array();
+	}
+
+	private static boolean differs(double a, double b) {
+		return Double.doubleToLongBits(a) != Double.doubleToLongBits(b);
+	}
+
+	/**
+	 * The reverse of {@link #encode(Genome, Genome)}. The base is not modified.
+	 */
+	static Genome apply(Genome base, ByteBuffer delta) {
+		final Genome genome = base.copy();
+		genome.setFitness(delta.getDouble());
+
+		for (int n = delta.getInt(); n > 0; n--)
+			genome.removeHidden(delta.getLong());
+		for (int n = delta.getInt(); n > 0; n--)
+			genome.putHidden(delta.getLong());
+
+		for (int n = delta.getInt(); n > 0; n--)
+			genome.removeGene(genome.indexOf(delta.getLong()));
+
+		for (int n = delta.getInt(); n > 0; n--) {
+			final int i = genome.indexOf(delta.getLong());
+			genome.setWeight(i, delta.getDouble());
+			genome.setBias(i, delta.getDouble());
+			genome.setEnabled(i, delta.get() != 0);
+		}
+
+		for (int n = delta.getInt(); n > 0; n--) {
+			genome.putGene(
+					delta.getLong(),
+					delta.getLong(), delta.getLong(),
+					delta.getDouble(), delta.getDouble(),
+					delta.get() != 0);
+		}
+
+		return genome;
+	}
+}
@@ -1,18 +1,18 @@
 package utils;
 
 import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  * Utility methods for reading and writing track edges.
@@ -20,19 +20,25 @@ import java.util.regex.Pattern;
 public class MapIO {
 
 	public static void writeMap(List<Line2D> trackEdges) throws IOException {
-		Date now = new Date();
-		DateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss");
-
-		BufferedWriter writer = new BufferedWriter(
-				new FileWriter("Map_" + format.format(now) + ".map")
-		);
+		writeMap(trackEdges, FileNames.newTimestampedFile("Map", ".map").toString());
+	}
 
-		for (Line2D line : trackEdges) {
-			writer.write(stringOf(line));
-			writer.newLine();
+	/**
+	 * Writes the specified edges to the specified file. Files ending in
+	 * {@value #BINARY_EXTENSION} are written in the binary format, others as text.
+	 */
+	public static void writeMap(List<Line2D> trackEdges, String fileName) throws IOException {
+		if (fileName.endsWith(BINARY_EXTENSION)) {
+			writeBinaryMap(trackEdges, fileName);
+			return;
 		}
 
-		writer.close();
+		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName))) {
+			for (Line2D line : trackEdges) {
+				writer.write(stringOf(line));
+				writer.newLine();
+			}
+		}
 	}
 
 	public static void writeMapSilently(List<Line2D> trackEdges) {
@@ -53,12 +59,23 @@ public class MapIO {
 
 
 
+	/**
+	 * Reads the edges stored in the specified file. Files ending in
+	 * {@value #BINARY_EXTENSION} are read as binary maps, others as text.
+	 */
 	public static List<Line2D> readMap(String fileName) throws IOException {
+		if (fileName.endsWith(BINARY_EXTENSION))
+			return readBinaryMap(fileName);
+
 		final List<Line2D> edges = new ArrayList<>();
 
-		Files.lines(Paths.get(fileName))
-				.map(MapIO::parseEdge)
-				.forEach(edges::add);
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName))) {
+			final EdgeParser parser = new EdgeParser();
+			for (String line; (line = reader.readLine()) != null; ) {
+				if (!line.trim().isEmpty())
+					edges.add(parser.parse(line));
+			}
+		}
 
 		return edges;
 	}
@@ -78,41 +95,168 @@ public class MapIO {
 	}
 
 
-	private static final Pattern EDGE_LINE_PATTERN =
-			Pattern.compile("\\(\\d, \\d\\)->\\(\\d, \\d\\)");
-	private static final Pattern ARROW =
-			Pattern.compile("->");
+	/**
+	 * Parses edges of the form "(x1, y1)->(x2, y2)" in a single pass, without regular
+	 * expressions. Any value accepted by {@link Double#parseDouble(String)} may be used as
+	 * a coordinate, and whitespace around tokens is ignored.
+	 */
+	private static class EdgeParser {
+		private String s;
+		private int i;
+
+		Line2D parse(String line) {
+			s = line;
+			i = 0;
+
+			final double x1, y1, x2, y2;
+			expect('(');
+			x1 = number(',');
+			expect(',');
+			y1 = number(')');
+			expect(')');
+			expect('-');
+			expect('>');
+			expect('(');
+			x2 = number(',');
+			expect(',');
+			y2 = number(')');
+			expect(')');
+
+			skipWhitespace();
+			if (i != s.length())
+				throw new IllegalArgumentException("Incomplete edge: " + s);
 
-	private static Line2D parseEdge(String s) {
-		if (!EDGE_LINE_PATTERN.matcher(s).matches())
-			throw new IllegalArgumentException("Incomplete edge: " + s);
+			return new Line2D.Double(x1, y1, x2, y2);
+		}
 
+		private void expect(char c) {
+			skipWhitespace();
+			if (i >= s.length() || s.charAt(i) != c)
+				throw new IllegalArgumentException("Incomplete edge: " + s);
+			i++;
+		}
 
-		final String[] endPoints = ARROW.split(s);
+		/**
+		 * Reads a number up to, but not including, the specified terminator.
+		 */
+		private double number(char terminator) {
+			skipWhitespace();
+			final int start = i;
+			while (i < s.length() && s.charAt(i) != terminator)
+				i++;
 
-		final String stringP1, stringP2;
-		stringP1 = endPoints[0];
-		stringP2 = endPoints[1];
+			if (i >= s.length())
+				throw new IllegalArgumentException("Incomplete edge: " + s);
 
-		final Point2D p1, p2;
-		p1 = parsePoint(stringP1);
-		p2 = parsePoint(stringP2);
+			try {
+				return Double.parseDouble(s.substring(start, i));
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Bad coordinate in edge: " + s, e);
+			}
+		}
 
-		return new Line2D.Double(p1, p2);
+		private void skipWhitespace() {
+			while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+				i++;
+		}
 	}
 
 
-	private static final Pattern COMMA =
-			Pattern.compile(", ");
+	//////////////////////////////
+	//binary format
+
+	/**
+	 * Extension of binary map files.
+	 * A binary map is a 16 byte header - the magic number, the format version and the
+	 * number of edges - followed by x1, y1, x2, y2 of every edge, all little-endian.
+	 */
+	public static final String BINARY_EXTENSION = ".mapb";
+
+	private static final int BINARY_MAGIC = 0x4250414D;	//"MAPB" in little-endian
+	private static final int BINARY_VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+	private static final int EDGE_BYTES = 4 * Double.BYTES;
+	/**
+	 * Edges per mapped region or write buffer, keeps each region well under 2GB.
+	 */
+	private static final int EDGES_PER_CHUNK = 1 << 20;
+
+	public static void writeBinaryMap(List<Line2D> trackEdges, String fileName)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+
+			final ByteBuffer buffer =
+					ByteBuffer.allocateDirect(EDGES_PER_CHUNK * EDGE_BYTES)
+							.order(ByteOrder.LITTLE_ENDIAN);
 
-	private static Point2D parsePoint(String s) {
-		final String xCommaY = s.substring(1, s.length()-1);	//strip parenthesis
-		final String[] xy = COMMA.split(xCommaY);
-		final double x, y;
-		x = Double.parseDouble(xy[0]);
-		y = Double.parseDouble(xy[1]);
+			buffer.putInt(BINARY_MAGIC).putInt(BINARY_VERSION).putLong(trackEdges.size());
 
-		return new Point2D.Double(x, y);
+			for (Line2D line : trackEdges) {
+				if (buffer.remaining() < EDGE_BYTES)
+					drain(buffer, channel);
+
+				buffer.putDouble(line.getX1()).putDouble(line.getY1())
+						.putDouble(line.getX2()).putDouble(line.getY2());
+			}
+
+			drain(buffer, channel);
+		}
+	}
+
+	private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
 	}
 
+	/**
+	 * Reads a binary map by memory-mapping the file.
+	 */
+	public static List<Line2D> readBinaryMap(String fileName) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES)
+				throw new IOException("Truncated binary map: " + fileName);
+
+			final ByteBuffer header =
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+							.order(ByteOrder.LITTLE_ENDIAN);
+
+			if (header.getInt() != BINARY_MAGIC)
+				throw new IOException("Not a binary map: " + fileName);
+			if (header.getInt() != BINARY_VERSION)
+				throw new IOException("Unsupported binary map version: " + fileName);
+
+			//checked by division so a corrupt count cannot overflow
+			final long count = header.getLong();
+			if (count < 0 || count > (channel.size() - HEADER_BYTES) / EDGE_BYTES)
+				throw new IOException("Truncated binary map: " + fileName);
+			if (count > Integer.MAX_VALUE - 8)
+				throw new IOException("Binary map too large: " + fileName);
+
+			final List<Line2D> edges = new ArrayList<>((int) count);
+
+			for (long read = 0; read < count; ) {
+				final int chunk = (int) Math.min(EDGES_PER_CHUNK, count - read);
+				final DoubleBuffer doubles =
+						channel.map(FileChannel.MapMode.READ_ONLY,
+								HEADER_BYTES + read * EDGE_BYTES,
+								(long) chunk * EDGE_BYTES)
+								.order(ByteOrder.LITTLE_ENDIAN)
+								.asDoubleBuffer();
+
+				for (int i = 0; i < chunk; i++)
+					edges.add(new Line2D.Double(
+							doubles.get(), doubles.get(), doubles.get(), doubles.get()));
+
+				read += chunk;
+			}
+
+			return edges;
+		}
+	}
 }
@@ -0,0 +1,230 @@
+package utils;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.util.*;
+
+/**
+ * Load-time clean up of track edges. Every edge removed here is one less ray/segment
+ * test for every sensor and every collision check on every tick.
+ * <p>
+ * The pipeline removes duplicate and zero-length edges, chains the remaining edges into
+ * polylines, merges collinear neighbours and optionally simplifies each polyline with
+ * Douglas-Peucker.
+ */
+public class MapPreprocessor {
+	/**
+	 * Edges shorter than this and turns flatter than this are treated as degenerate.
+	 */
+	private static final double EPSILON = 1e-9;
+
+	/**
+	 * Preprocesses the specified edges without lossy simplification.
+	 */
+	public static List<Line2D> preprocess(List<Line2D> edges) {
+		return preprocess(edges, 0);
+	}
+
+	/**
+	 * Preprocesses the specified edges and prints the reduction in edge count.
+	 * @param tolerance	the maximum distance a simplified polyline may deviate from the
+	 *                  original one, 0 or less to disable simplification
+	 */
+	public static List<Line2D> preprocess(List<Line2D> edges, double tolerance) {
+		final List<Line2D> unique = removeDegenerates(edges);
+
+		final List<Line2D> result = new ArrayList<>();
+		for (List<Point2D> polyline : buildPolylines(unique)) {
+			List<Point2D> points = mergeCollinear(polyline);
+			if (tolerance > 0)
+				points = simplify(points, tolerance);
+
+			for (int i = 1; i < points.size(); i++)
+				result.add(new Line2D.Double(points.get(i-1), points.get(i)));
+		}
+
+		System.out.printf("Map preprocessed: %d -> %d edges%n", edges.size(), result.size());
+
+		return result;
+	}
+
+
+	/**
+	 * Removes zero-length edges and edges that duplicate another edge, in either direction.
+	 */
+	static List<Line2D> removeDegenerates(List<Line2D> edges) {
+		final Set<List<Point2D>> seen = new HashSet<>();
+		final List<Line2D> result = new ArrayList<>();
+
+		for (Line2D edge : edges) {
+			final Point2D p1 = pointOf(edge.getX1(), edge.getY1());
+			final Point2D p2 = pointOf(edge.getX2(), edge.getY2());
+
+			if (p1.distance(p2) <= EPSILON)
+				continue;
+
+			// order end points so reversed duplicates share a key
+			final boolean ordered =
+					p1.getX() < p2.getX() || (p1.getX() == p2.getX() && p1.getY() <= p2.getY());
+			final List<Point2D> key = ordered ? Arrays.asList(p1, p2) : Arrays.asList(p2, p1);
+
+			if (seen.add(key))
+				result.add(new Line2D.Double(p1, p2));
+		}
+
+		return result;
+	}
+
+
+	/**
+	 * Chains edges sharing end points into polylines. Chains break wherever more or fewer
+	 * than 2 edges meet, so junctions are never merged away. Closed loops start and end
+	 * on the same point.
+	 */
+	static List<List<Point2D>> buildPolylines(List<Line2D> edges) {
+		final Map<Point2D, List<Integer>> adjacency = new HashMap<>();
+		for (int i = 0; i < edges.size(); i++) {
+			adjacency.computeIfAbsent(edges.get(i).getP1(), p -> new ArrayList<>()).add(i);
+			adjacency.computeIfAbsent(edges.get(i).getP2(), p -> new ArrayList<>()).add(i);
+		}
+
+		final boolean[] used = new boolean[edges.size()];
+		final List<List<Point2D>> polylines = new ArrayList<>();
+
+		// open chains first, starting from their ends or junctions
+		for (Map.Entry<Point2D, List<Integer>> entry : adjacency.entrySet()) {
+			if (entry.getValue().size() == 2)
+				continue;
+			for (int edge : entry.getValue()) {
+				if (!used[edge])
+					polylines.add(walk(entry.getKey(), edge, edges, adjacency, used));
+			}
+		}
+
+		// whatever is left forms closed loops
+		for (int i = 0; i < edges.size(); i++) {
+			if (!used[i])
+				polylines.add(walk(edges.get(i).getP1(), i, edges, adjacency, used));
+		}
+
+		return polylines;
+	}
+
+	private static List<Point2D> walk(Point2D start, int edge,
+									  List<Line2D> edges,
+									  Map<Point2D, List<Integer>> adjacency,
+									  boolean[] used) {
+		final List<Point2D> points = new ArrayList<>();
+		points.add(start);
+
+		Point2D current = start;
+		while (edge >= 0) {
+			used[edge] = true;
+			final Line2D line = edges.get(edge);
+			current = current.equals(line.getP1()) ? line.getP2() : line.getP1();
+			points.add(current);
+
+			edge = -1;
+			final List<Integer> next = adjacency.get(current);
+			if (next.size() == 2) {
+				for (int candidate : next) {
+					if (!used[candidate])
+						edge = candidate;
+				}
+			}
+		}
+
+		return points;
+	}
+
+
+	/**
+	 * Removes interior points lying on the straight line between their neighbours.
+	 */
+	static List<Point2D> mergeCollinear(List<Point2D> points) {
+		if (points.size() < 3)
+			return points;
+
+		final List<Point2D> result = new ArrayList<>();
+		result.add(points.get(0));
+
+		for (int i = 1; i < points.size() - 1; i++) {
+			final Point2D prev = result.get(result.size() - 1);
+			final Point2D here = points.get(i);
+			final Point2D next = points.get(i + 1);
+
+			final double ax = here.getX() - prev.getX(), ay = here.getY() - prev.getY();
+			final double bx = next.getX() - here.getX(), by = next.getY() - here.getY();
+
+			final double cross = ax * by - ay * bx;
+			final double dot = ax * bx + ay * by;
+
+			// keep points where the line turns or doubles back
+			if (Math.abs(cross) > EPSILON * Math.hypot(ax, ay) * Math.hypot(bx, by) || dot <= 0)
+				result.add(here);
+		}
+
+		result.add(points.get(points.size() - 1));
+		return result;
+	}
+
+
+	/**
+	 * Douglas-Peucker simplification. The end points are always kept.
+	 */
+	static List<Point2D> simplify(List<Point2D> points, double tolerance) {
+		if (points.size() < 3)
+			return points;
+
+		final boolean[] keep = new boolean[points.size()];
+		keep[0] = keep[points.size() - 1] = true;
+
+		// explicit stack of ranges, recursion depth could reach the polyline length
+		final Deque<int[]> ranges = new ArrayDeque<>();
+		ranges.push(new int[] { 0, points.size() - 1 });
+
+		while (!ranges.isEmpty()) {
+			final int[] range = ranges.pop();
+			final int first = range[0], last = range[1];
+
+			int farthest = -1;
+			double maxDistance = tolerance;
+			for (int i = first + 1; i < last; i++) {
+				final double d =
+						distanceToSegment(points.get(i), points.get(first), points.get(last));
+				if (d > maxDistance) {
+					maxDistance = d;
+					farthest = i;
+				}
+			}
+
+			if (farthest >= 0) {
+				keep[farthest] = true;
+				ranges.push(new int[] { first, farthest });
+				ranges.push(new int[] { farthest, last });
+			}
+		}
+
+		final List<Point2D> result = new ArrayList<>();
+		for (int i = 0; i < points.size(); i++) {
+			if (keep[i])
+				result.add(points.get(i));
+		}
+		return result;
+	}
+
+	private static double distanceToSegment(Point2D p, Point2D a, Point2D b) {
+		// closed polylines start and end on the same point
+		if (a.equals(b))
+			return p.distance(a);
+		return Line2D.ptSegDist(a.getX(), a.getY(), b.getX(), b.getY(), p.getX(), p.getY());
+	}
+
+
+	/**
+	 * Normalizes -0.0 to 0.0 so equal coordinates hash equally.
+	 */
+	private static Point2D pointOf(double x, double y) {
+		return new Point2D.Double(x + 0.0, y + 0.0);
+	}
+}
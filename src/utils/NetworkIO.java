@@ -1,20 +1,25 @@
 package utils;
 
 import network.Connection;
+import network.Genome;
 import network.Network;
 import network.Node;
+import network.NodeType;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * This class provides utility methods for reading and writing
@@ -26,41 +31,47 @@ public class NetworkIO {
 	 * Saves the specified network structure to file.
 	 */
 	public static void write(Network network) throws IOException {
-		Date now = new Date();
-		DateFormat format = new SimpleDateFormat("yyyyMMdd_HHmmss");
-		
-		BufferedWriter writer = new BufferedWriter(
-				new FileWriter("Network_" + format.format(now) + ".nw")
-		);
+		write(network, FileNames.newTimestampedFile("Network", ".nw").toString());
+	}
 
-		//write input nodes
-		for (Node i : network.getInputNodes()) {
-			writer.write(i.toString());
-			writer.write(", ");
+	/**
+	 * Saves the specified network structure to the specified file. Files ending in
+	 * {@value #BINARY_EXTENSION} are written in the binary format, others as text.
+	 */
+	public static void write(Network network, String fileName) throws IOException {
+		if (fileName.endsWith(BINARY_EXTENSION)) {
+			writeBinary(network, fileName);
+			return;
 		}
-		writer.newLine();
 
-		//write hidden nodes
-		for (Node h : network.getHiddens().values()) {
-			writer.write(h.toString());
-			writer.write(", ");
-		}
-		writer.newLine();
+		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName))) {
+			//write input nodes
+			for (Node i : network.getInputNodes()) {
+				writer.write(i.toString());
+				writer.write(", ");
+			}
+			writer.newLine();
 
-		//write output nodes
-		for (Node o : network.getOutputNodes()) {
-			writer.write(o.toString());
-			writer.write(", ");
-		}
-		writer.newLine();
+			//write hidden nodes
+			for (Node h : network.getHiddens().values()) {
+				writer.write(h.toString());
+				writer.write(", ");
+			}
+			writer.newLine();
 
-		//write connections
-		for (Connection c : network.getConnections().values()) {
-			writer.write(c.toString());
+			//write output nodes
+			for (Node o : network.getOutputNodes()) {
+				writer.write(o.toString());
+				writer.write(", ");
+			}
 			writer.newLine();
-		}
 
-		writer.close();
+			//write connections
+			for (Connection c : network.getConnections().values()) {
+				writer.write(c.toString());
+				writer.newLine();
+			}
+		}
 	}
 
 	public static void writeSilently(Network network) {
@@ -80,6 +91,9 @@ public class NetworkIO {
 	 * @return	the reconstructed neural network
 	 */
 	public static Network read(String path) throws IOException {
+		if (path.endsWith(BINARY_EXTENSION))
+			return readBinary(path);
+
 		Path save = Paths.get(path);
 
 		Network network = new Network();
@@ -132,4 +146,320 @@ public class NetworkIO {
 
 		return network;
 	}
+
+
+	//////////////////////////////
+	//binary format
+
+	/**
+	 * Extension of binary network files.
+	 * <p>
+	 * A binary genome is a header - magic number, format version, fitness and the number
+	 * of input, hidden and output nodes and of connections - followed by the ID of every
+	 * node in that order, then one record per connection: innovation number, index of
+	 * both end nodes in the node table, weight, bias and enabled flag. All values are
+	 * little-endian.
+	 */
+	public static final String BINARY_EXTENSION = ".nwb";
+	/**
+	 * Extension of population files, a header followed by length-prefixed binary genomes.
+	 */
+	public static final String POPULATION_EXTENSION = ".pop";
+
+	private static final int GENOME_MAGIC = 0x42574E;	//"NWB" in little-endian
+	private static final int POPULATION_MAGIC = 0x504F50;	//"POP" in little-endian
+	private static final int BINARY_VERSION = 1;
+
+	private static final int GENOME_HEADER_BYTES = 2 * Integer.BYTES + Double.BYTES + 4 * Integer.BYTES;
+	private static final int CONNECTION_BYTES =
+			Long.BYTES + 2 * Integer.BYTES + 2 * Double.BYTES + Byte.BYTES;
+	private static final int POPULATION_HEADER_BYTES = 3 * Integer.BYTES;
+
+	/**
+	 * Returns the number of bytes needed to encode the specified network.
+	 */
+	public static int encodedSize(Network network) {
+		final int nodes = network.getInputNodes().size() +
+				network.getHiddens().size() +
+				network.getOutputNodes().size();
+
+		return GENOME_HEADER_BYTES +
+				nodes * Long.BYTES +
+				network.getConnections().size() * CONNECTION_BYTES;
+	}
+
+	/**
+	 * Encodes the specified network into the buffer at its current position.
+	 * The buffer must be little-endian and have at least {@link #encodedSize(Network)}
+	 * bytes remaining.
+	 */
+	public static void encode(Network network, ByteBuffer buffer) {
+		final List<Node> nodes = new ArrayList<>(network.getInputNodes());
+		nodes.addAll(network.getHiddens().values());
+		nodes.addAll(network.getOutputNodes());
+
+		buffer.putInt(GENOME_MAGIC)
+				.putInt(BINARY_VERSION)
+				.putDouble(network.getFitness())
+				.putInt(network.getInputNodes().size())
+				.putInt(network.getHiddens().size())
+				.putInt(network.getOutputNodes().size())
+				.putInt(network.getConnections().size());
+
+		// Node does not implement hashCode, index by ID instead
+		final Map<Long, Integer> indices = new HashMap<>();
+		for (int i = 0; i < nodes.size(); i++) {
+			indices.put(nodes.get(i).getID(), i);
+			buffer.putLong(nodes.get(i).getID());
+		}
+
+		for (Connection c : network.getConnections().values()) {
+			buffer.putLong(c.getInnovationNumber())
+					.putInt(indices.get(c.getPrevNode().getID()))
+					.putInt(indices.get(c.getNextNode().getID()))
+					.putDouble(c.getWeight())
+					.putDouble(c.getBias())
+					.put((byte) (c.isEnabled() ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Returns the number of bytes needed to encode the specified genome.
+	 */
+	public static int encodedSize(Genome genome) {
+		final int nodes =
+				genome.getInputCount() + genome.getHiddenCount() + genome.getOutputCount();
+
+		return GENOME_HEADER_BYTES + nodes * Long.BYTES + genome.size() * CONNECTION_BYTES;
+	}
+
+	/**
+	 * Encodes the specified genome exactly as {@link #encode(Network, ByteBuffer)} encodes
+	 * the equivalent network, without building it.
+	 */
+	public static void encode(Genome genome, ByteBuffer buffer) {
+		buffer.putInt(GENOME_MAGIC)
+				.putInt(BINARY_VERSION)
+				.putDouble(genome.getFitness())
+				.putInt(genome.getInputCount())
+				.putInt(genome.getHiddenCount())
+				.putInt(genome.getOutputCount())
+				.putInt(genome.size());
+
+		for (int i = 0; i < genome.getInputCount(); i++)
+			buffer.putLong(genome.getInput(i));
+		for (int i = 0; i < genome.getHiddenCount(); i++)
+			buffer.putLong(genome.getHidden(i));
+		for (int i = 0; i < genome.getOutputCount(); i++)
+			buffer.putLong(genome.getOutput(i));
+
+		for (int i = 0; i < genome.size(); i++) {
+			buffer.putLong(genome.getInnovation(i))
+					.putInt(genome.nodeIndex(genome.getPrevId(i)))
+					.putInt(genome.nodeIndex(genome.getNextId(i)))
+					.putDouble(genome.getWeight(i))
+					.putDouble(genome.getBias(i))
+					.put((byte) (genome.isEnabled(i) ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Decodes a network encoded by {@link #encode(Network, ByteBuffer)} starting at the
+	 * current position of the little-endian buffer.
+	 * @throws IllegalArgumentException	if the buffer does not hold a binary genome, or
+	 * 									holds a truncated or corrupt one
+	 */
+	public static Network decode(ByteBuffer buffer) {
+		if (buffer.remaining() < GENOME_HEADER_BYTES)
+			throw new IllegalArgumentException("Truncated binary genome header");
+
+		if (buffer.getInt() != GENOME_MAGIC)
+			throw new IllegalArgumentException("Not a binary genome");
+		if (buffer.getInt() != BINARY_VERSION)
+			throw new IllegalArgumentException("Unsupported binary genome version");
+
+		final Network network = new Network();
+		network.setFitness(buffer.getDouble());
+
+		final int inputs = buffer.getInt();
+		final int hiddens = buffer.getInt();
+		final int outputs = buffer.getInt();
+		final int connections = buffer.getInt();
+
+		// checked up front so a corrupt count cannot size an array
+		final long nodeCount = (long) inputs + hiddens + outputs;
+		if (inputs < 0 || hiddens < 0 || outputs < 0 || connections < 0 ||
+				nodeCount * Long.BYTES + (long) connections * CONNECTION_BYTES > buffer.remaining())
+			throw new IllegalArgumentException("Truncated or corrupt binary genome");
+
+		final Node[] nodes = new Node[inputs + hiddens + outputs];
+		for (int i = 0; i < nodes.length; i++) {
+			final NodeType type =
+					i < inputs ? NodeType.INPUT :
+					i < inputs + hiddens ? NodeType.HIDDEN :
+					NodeType.OUTPUT;
+
+			nodes[i] = new Node.NodeBuilder(type, buffer.getLong()).build();
+			network.putNode(nodes[i]);
+		}
+
+		for (int i = 0; i < connections; i++) {
+			final long innovNum = buffer.getLong();
+			final Node prev = nodeAt(nodes, buffer.getInt());
+			final Node next = nodeAt(nodes, buffer.getInt());
+			final double weight = buffer.getDouble();
+			final double bias = buffer.getDouble();
+
+			final Connection c = new Connection(innovNum, weight, bias, prev, next);
+			c.setEnabled(buffer.get() != 0);
+			network.putConnection(c);
+		}
+
+		return network;
+	}
+
+	private static Node nodeAt(Node[] nodes, int index) {
+		if (index < 0 || index >= nodes.length)
+			throw new IllegalArgumentException("Connection to missing node " + index);
+		return nodes[index];
+	}
+
+	public static void writeBinary(Network network, String fileName) throws IOException {
+		final ByteBuffer buffer =
+				ByteBuffer.allocate(encodedSize(network)).order(ByteOrder.LITTLE_ENDIAN);
+		encode(network, buffer);
+		buffer.flip();
+
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+	}
+
+	public static Network readBinary(String path) throws IOException {
+		final ByteBuffer buffer =
+				ByteBuffer.wrap(Files.readAllBytes(Paths.get(path))).order(ByteOrder.LITTLE_ENDIAN);
+
+		try {
+			return decode(buffer);
+		}
+		catch (IllegalArgumentException | BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IOException("Bad binary network: " + path, e);
+		}
+	}
+
+
+	//////////////////////////////
+	//populations
+
+	/**
+	 * Writes all networks of a population to a single file.
+	 */
+	public static void writePopulation(List<Network> population, String fileName)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+
+			final ByteBuffer header =
+					ByteBuffer.allocate(POPULATION_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(POPULATION_MAGIC).putInt(BINARY_VERSION).putInt(population.size());
+			header.flip();
+			while (header.hasRemaining())
+				channel.write(header);
+
+			for (Network network : population) {
+				final int size = encodedSize(network);
+				final ByteBuffer buffer =
+						ByteBuffer.allocate(Integer.BYTES + size).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.putInt(size);
+				encode(network, buffer);
+				buffer.flip();
+
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Reads a population. The path may be a population file, which is memory-mapped and
+	 * decoded in parallel, or a directory, whose network files are read in parallel.
+	 * Networks that fail to load from a directory are skipped.
+	 */
+	public static List<Network> readPopulation(String path) throws IOException {
+		final Path p = Paths.get(path);
+
+		if (Files.isDirectory(p)) {
+			try (Stream<Path> files = Files.list(p)) {
+				return files
+						.filter(Files::isRegularFile)
+						.map(Path::toString)
+						.collect(Collectors.toList())
+						.parallelStream()
+						.map(NetworkIO::readSilently)
+						.filter(Objects::nonNull)
+						.collect(Collectors.toList());
+			}
+		}
+
+		try (FileChannel channel = FileChannel.open(p, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Population file too large to map: " + path);
+
+			final ByteBuffer buffer =
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+							.order(ByteOrder.LITTLE_ENDIAN);
+
+			try {
+				if (buffer.getInt() != POPULATION_MAGIC || buffer.getInt() != BINARY_VERSION)
+					throw new IOException("Not a population file: " + path);
+
+				// locate every genome first, then decode them all at once
+				final int count = buffer.getInt();
+				if (count < 0 || count > buffer.remaining() / Integer.BYTES)
+					throw new IOException("Truncated population file: " + path);
+				final int[] offsets = new int[count];
+				final int[] sizes = new int[count];
+				for (int i = 0; i < count; i++) {
+					sizes[i] = buffer.getInt();
+					offsets[i] = buffer.position();
+					if (sizes[i] < 0 || sizes[i] > buffer.remaining())
+						throw new IOException("Truncated population file: " + path);
+					buffer.position(offsets[i] + sizes[i]);
+				}
+
+				return IntStream.range(0, count)
+						.parallel()
+						.mapToObj(i -> {
+							final ByteBuffer genome = buffer.duplicate();
+							genome.limit(offsets[i] + sizes[i]).position(offsets[i]);
+							return decode(genome.slice().order(ByteOrder.LITTLE_ENDIAN));
+						})
+						.collect(Collectors.toList());
+			}
+			catch (IllegalArgumentException | BufferUnderflowException | IndexOutOfBoundsException e) {
+				throw new IOException("Bad population file: " + path, e);
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #readPopulation(String)}, but returns an empty list for failed
+	 * operations instead of throwing IOException.
+	 */
+	public static List<Network> readPopulationSilently(String path) {
+		try {
+			return readPopulation(path);
+		}
+		catch (IOException e) {
+			System.err.println("Failed to read population: " + path);
+			e.printStackTrace();
+			return new ArrayList<>();
+		}
+	}
 }
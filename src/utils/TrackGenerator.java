@@ -0,0 +1,268 @@
+package utils;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates tracks procedurally from a seed. The same settings always produce the same
+ * track.
+ * <p>
+ * Every track starts at the origin facing the positive x direction, where the car is
+ * initially placed. Each segment of the centerline contributes one left and one right
+ * edge, so a track has twice as many edges as segments.
+ */
+public class TrackGenerator {
+	private long seed = 0;
+	private int segments = 500;
+	private double segmentLength = 20;
+	/**
+	 * Maximum change of heading between consecutive segments, in radians.
+	 */
+	private double curvature = Math.PI / 36;
+	private double width = 150;
+	private boolean closed = true;
+
+	/**
+	 * Arguments, all optional:
+	 * -output file, ".mapb" for the binary format
+	 * -number of edges
+	 * -seed
+	 * -"open" or "closed"
+	 * -curvature, the maximum change of heading between segments in radians
+	 * -width of the track
+	 * <p>
+	 * The centerline is written next to the output file, see {@link #centerlineFileOf}.
+	 */
+	public static void main(String[] args) throws IOException {
+		final String output = args.length >= 1 ? args[0] : "maps/generated.map";
+		final long edges = args.length >= 2 ? Long.parseLong(args[1]) : 1000;
+
+		final TrackGenerator generator = new TrackGenerator()
+				.setSegments((int) Math.max(edges / 2, 3));
+		if (args.length >= 3)
+			generator.setSeed(Long.parseLong(args[2]));
+		if (args.length >= 4)
+			generator.setClosed(!args[3].equals("open"));
+		if (args.length >= 5)
+			generator.setCurvature(Double.parseDouble(args[4]));
+		if (args.length >= 6)
+			generator.setWidth(Double.parseDouble(args[5]));
+
+		final Track track = generator.generate();
+
+		MapIO.writeMap(track.getEdges(), output);
+		MapIO.writeMap(track.getCenterlineEdges(), centerlineFileOf(output));
+
+		System.out.printf("Generated %d edges: %s%n", track.getEdges().size(), output);
+	}
+
+	/**
+	 * Returns the name of the file the centerline of the specified map is written to,
+	 * "maps/a.map" becomes "maps/a.center.map".
+	 */
+	public static String centerlineFileOf(String mapFile) {
+		final int dot = mapFile.lastIndexOf('.');
+		return dot < 0 ?
+				mapFile + ".center" :
+				mapFile.substring(0, dot) + ".center" + mapFile.substring(dot);
+	}
+
+
+	/**
+	 * A generated track.
+	 */
+	public static class Track {
+		private final List<Point2D> centerline;
+		private final List<Line2D> leftEdges, rightEdges;
+
+		private Track(List<Point2D> centerline, List<Line2D> leftEdges, List<Line2D> rightEdges) {
+			this.centerline = centerline;
+			this.leftEdges = leftEdges;
+			this.rightEdges = rightEdges;
+		}
+
+		public List<Point2D> getCenterline() { return centerline; }
+		public List<Line2D> getLeftEdges() { return leftEdges; }
+		public List<Line2D> getRightEdges() { return rightEdges; }
+
+		/**
+		 * Returns both sides of the track, as used by {@link MapIO}.
+		 */
+		public List<Line2D> getEdges() {
+			final List<Line2D> edges = new ArrayList<>(leftEdges.size() + rightEdges.size());
+			edges.addAll(leftEdges);
+			edges.addAll(rightEdges);
+			return edges;
+		}
+
+		public List<Line2D> getCenterlineEdges() {
+			final List<Line2D> edges = new ArrayList<>(centerline.size());
+			for (int i = 1; i < centerline.size(); i++)
+				edges.add(new Line2D.Double(centerline.get(i-1), centerline.get(i)));
+			return edges;
+		}
+	}
+
+
+	public Track generate() {
+		if (closed && segments < 3)
+			throw new IllegalStateException("A closed track needs at least 3 segments");
+
+		final List<Point2D> centerline = closed ? closedCenterline() : openCenterline();
+
+		final List<Line2D> left = new ArrayList<>(centerline.size());
+		final List<Line2D> right = new ArrayList<>(centerline.size());
+
+		Point2D prevLeft = null, prevRight = null;
+		for (int i = 0; i < centerline.size(); i++) {
+			final double heading = headingAt(centerline, i);
+			final Point2D p = centerline.get(i);
+
+			// normal pointing to the left of the heading
+			final double nx = -Math.sin(heading) * width / 2;
+			final double ny = Math.cos(heading) * width / 2;
+
+			final Point2D l = new Point2D.Double(p.getX() + nx, p.getY() + ny);
+			final Point2D r = new Point2D.Double(p.getX() - nx, p.getY() - ny);
+
+			if (prevLeft != null) {
+				left.add(new Line2D.Double(prevLeft, l));
+				right.add(new Line2D.Double(prevRight, r));
+			}
+			prevLeft = l;
+			prevRight = r;
+		}
+
+		return new Track(centerline, left, right);
+	}
+
+	/**
+	 * The heading at a point is the average of the headings of the segments around it,
+	 * so edges of neighbouring segments meet.
+	 */
+	private double headingAt(List<Point2D> points, int i) {
+		final int last = points.size() - 1;
+		final boolean loops = closed && points.get(0).equals(points.get(last));
+
+		final Point2D prev, next;
+		if (i == 0)
+			prev = loops ? points.get(last - 1) : points.get(0);
+		else
+			prev = points.get(i - 1);
+		if (i == last)
+			next = loops ? points.get(1) : points.get(last);
+		else
+			next = points.get(i + 1);
+
+		return Math.atan2(next.getY() - prev.getY(), next.getX() - prev.getX());
+	}
+
+	/**
+	 * A random walk of the heading, bounded by the curvature.
+	 */
+	private List<Point2D> openCenterline() {
+		final Random random = new Random(seed);
+		final List<Point2D> points = new ArrayList<>(segments + 1);
+
+		double x = 0, y = 0, heading = 0, turn = 0;
+		points.add(new Point2D.Double(x, y));
+
+		for (int i = 0; i < segments; i++) {
+			// turn rate drifts smoothly instead of jumping every segment
+			turn += (random.nextDouble() * 2 - 1) * curvature / 4;
+			turn = Math.max(-curvature, Math.min(curvature, turn));
+
+			// straight start for the car
+			if (i > 0)
+				heading += turn;
+
+			x += segmentLength * Math.cos(heading);
+			y += segmentLength * Math.sin(heading);
+			points.add(new Point2D.Double(x, y));
+		}
+
+		return points;
+	}
+
+	/**
+	 * A circle with a radius perturbed by a few random harmonics, rotated and moved so
+	 * that it starts at the origin facing the positive x direction. The last point
+	 * repeats the first.
+	 */
+	private List<Point2D> closedCenterline() {
+		final Random random = new Random(seed);
+
+		// a circle with the same perimeter as the requested segments
+		final double radius = segments * segmentLength / (2 * Math.PI);
+
+		final int harmonics = 5;
+		final double[] amplitudes = new double[harmonics];
+		final double[] phases = new double[harmonics];
+		for (int k = 0; k < harmonics; k++) {
+			// higher curvature allows more wobble, keep it well short of crossing over
+			amplitudes[k] = random.nextDouble() * Math.min(curvature * 2, 0.3) / (k + 2);
+			phases[k] = random.nextDouble() * 2 * Math.PI;
+		}
+
+		final List<Point2D> points = new ArrayList<>(segments + 1);
+		for (int i = 0; i < segments; i++) {
+			final double theta = 2 * Math.PI * i / segments;
+
+			double r = 1;
+			for (int k = 0; k < harmonics; k++)
+				r += amplitudes[k] * Math.sin((k + 2) * theta + phases[k]);
+			r *= radius;
+
+			points.add(new Point2D.Double(r * Math.cos(theta), r * Math.sin(theta)));
+		}
+		points.add(points.get(0));
+
+		// move start to origin, facing positive x
+		final Point2D start = points.get(0);
+		final Point2D second = points.get(1);
+		final double rotation =
+				-Math.atan2(second.getY() - start.getY(), second.getX() - start.getX());
+		final double cos = Math.cos(rotation), sin = Math.sin(rotation);
+
+		final List<Point2D> result = new ArrayList<>(points.size());
+		for (Point2D p : points) {
+			final double dx = p.getX() - start.getX(), dy = p.getY() - start.getY();
+			result.add(new Point2D.Double(dx * cos - dy * sin, dx * sin + dy * cos));
+		}
+		// the last point must stay identical to the first
+		result.set(result.size() - 1, result.get(0));
+
+		return result;
+	}
+
+
+	//////////////////////////////
+	//setters, return this for chaining
+
+	public TrackGenerator setSeed(long seed) { this.seed = seed; return this; }
+
+	public TrackGenerator setSegments(int segments) {
+		if (segments < 1)
+			throw new IllegalArgumentException("Need at least 1 segment: " + segments);
+		this.segments = segments;
+		return this;
+	}
+
+	public TrackGenerator setSegmentLength(double segmentLength) {
+		this.segmentLength = segmentLength;
+		return this;
+	}
+
+	public TrackGenerator setCurvature(double curvature) {
+		this.curvature = curvature;
+		return this;
+	}
+
+	public TrackGenerator setWidth(double width) { this.width = width; return this; }
+
+	public TrackGenerator setClosed(boolean closed) { this.closed = closed; return this; }
+}
@@ -0,0 +1,144 @@
+package network;
+
+import ga.Config;
+import ga.Mutator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Checks that breeding genomes gives the same offspring as breeding networks: for the
+ * same parents and random stream, {@link Genome#crossover} and
+ * {@link Network#reproduceWith(Network, SplittableRandom)} produce the same child, and
+ * {@link Mutator} mutates a genome as it mutates the equivalent network.
+ * <p>
+ * Run its main method; a failure throws an AssertionError.
+ */
+public class GenomeCrossoverTest {
+	private static final int POOL_SIZE = 12;
+	private static final int ROUNDS = 200;
+	private static final int TRIALS = 500;
+
+	public static void main(String[] args) {
+		final Config config = new Config();
+		config.put("add_connection_rate", "0.5");
+		config.put("add_node_rate", "0.2");
+		config.put("recurrent_connections", "true");
+
+		final InnovationRegistry registry = new InnovationRegistry();
+		final List<Network> pool = evolvePool(config, registry, new SplittableRandom(1));
+
+		crossoverMatchesReproduceWith(pool);
+		mutationMatchesNetworkMutation(pool, config);
+
+		System.out.println("OK");
+	}
+
+	/**
+	 * Breeds networks with some history in common, so that parents have matching,
+	 * disjoint and excess genes.
+	 */
+	private static List<Network> evolvePool(Config config, InnovationRegistry registry,
+											SplittableRandom random) {
+		final Mutator mutator = new Mutator(config, registry);
+
+		final List<Network> pool = new ArrayList<>();
+		for (int i = 0; i < POOL_SIZE; i++) {
+			final Network n = emptyNetwork(8, 5);
+			registry.reserve(n);
+			pool.add(n);
+		}
+
+		for (int round = 0; round < ROUNDS; round++) {
+			final Network mother = pool.get(random.nextInt(POOL_SIZE));
+			final Network father = pool.get(random.nextInt(POOL_SIZE));
+			final Network child = mother.reproduceWith(father, random.split());
+			mutator.mutate(child, random);
+			pool.set(random.nextInt(POOL_SIZE), child);
+
+			if (round % POOL_SIZE == 0)
+				registry.nextGeneration();
+		}
+
+		return pool;
+	}
+
+	private static void crossoverMatchesReproduceWith(List<Network> pool) {
+		final SplittableRandom pick = new SplittableRandom(2);
+
+		for (int seed = 0; seed < TRIALS; seed++) {
+			final Network a = pool.get(pick.nextInt(POOL_SIZE));
+			final Network b = pool.get(pick.nextInt(POOL_SIZE));
+
+			final SplittableRandom networkRandom = new SplittableRandom(seed);
+			final Genome expected = Genome.of(a.reproduceWith(b, networkRandom));
+
+			final SplittableRandom genomeRandom = new SplittableRandom(seed);
+			final Genome actual = Genome.of(a).emptyCopy();
+			Genome.crossover(Genome.of(a), Genome.of(b), actual, genomeRandom);
+
+			assertSameGenome(expected, actual, "crossover with seed " + seed);
+			check(networkRandom.nextLong() == genomeRandom.nextLong(),
+					"crossover with seed " + seed + " used the random stream differently");
+		}
+	}
+
+	private static void mutationMatchesNetworkMutation(List<Network> pool, Config config) {
+		for (int seed = 0; seed < TRIALS; seed++) {
+			final Network original = pool.get(seed % POOL_SIZE);
+
+			// both sides get a registry in the same state, so new genes are numbered alike
+			final InnovationRegistry networkRegistry = new InnovationRegistry();
+			final InnovationRegistry genomeRegistry = new InnovationRegistry();
+			for (Network n : pool) {
+				networkRegistry.reserve(n);
+				genomeRegistry.reserve(n);
+			}
+
+			final Network network = Genome.of(original).toNetwork();
+			new Mutator(config, networkRegistry).mutate(network, new SplittableRandom(seed));
+
+			final Genome genome = Genome.of(original);
+			new Mutator(config, genomeRegistry).mutate(genome, new SplittableRandom(seed));
+
+			assertSameGenome(Genome.of(network), genome, "mutation with seed " + seed);
+		}
+	}
+
+
+	private static void assertSameGenome(Genome expected, Genome actual, String what) {
+		check(expected.hasSameEnds(actual), what + ": inputs or outputs differ");
+
+		check(expected.getHiddenCount() == actual.getHiddenCount(), what + ": hidden node count");
+		for (int i = 0; i < expected.getHiddenCount(); i++)
+			check(expected.getHidden(i) == actual.getHidden(i), what + ": hidden node " + i);
+
+		check(expected.size() == actual.size(), what + ": gene count");
+		for (int i = 0; i < expected.size(); i++) {
+			check(expected.getInnovation(i) == actual.getInnovation(i)
+					&& expected.getPrevId(i) == actual.getPrevId(i)
+					&& expected.getNextId(i) == actual.getNextId(i)
+					&& expected.getWeight(i) == actual.getWeight(i)
+					&& expected.getBias(i) == actual.getBias(i)
+					&& expected.isEnabled(i) == actual.isEnabled(i),
+					what + ": gene " + i);
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	private static Network emptyNetwork(int inputCount, int outputCount) {
+		final Network network = new Network();
+		for (int i = 0; i < inputCount; i++)
+			network.getInputNodes().add(
+					new Node.NodeBuilder(NodeType.INPUT, network.getNextNodeID()).build());
+		for (int i = 0; i < outputCount; i++)
+			network.getOutputNodes().add(
+					new Node.NodeBuilder(NodeType.OUTPUT, network.getNextNodeID()).build());
+		return network;
+	}
+}
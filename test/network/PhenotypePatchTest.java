@@ -0,0 +1,136 @@
+package network;
+
+import ga.Config;
+import ga.Mutator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Checks that evolved genomes and networks patch the phenotype of their parent rather
+ * than build their own, and that the patched phenotype computes what a phenotype built
+ * from scratch computes, recurrent connections included.
+ * <p>
+ * Run its main method; a failure throws an AssertionError.
+ */
+public class PhenotypePatchTest {
+	private static final int POOL_SIZE = 12;
+	private static final int ROUNDS = 2000;
+	private static final int STEPS = 5;
+	private static final double TOLERANCE = 1e-9;
+
+	public static void main(String[] args) {
+		final Config config = new Config();
+		config.put("add_connection_rate", "0.5");
+		config.put("add_node_rate", "0.2");
+		config.put("recurrent_connections", "true");
+
+		evolvedGenomesArePatched(config);
+		mutatedNetworksArePatched(config);
+
+		System.out.println("OK");
+	}
+
+	/**
+	 * Breeds genomes as evolution does, checking every child before it is evaluated.
+	 */
+	private static void evolvedGenomesArePatched(Config config) {
+		final InnovationRegistry registry = new InnovationRegistry();
+		final Mutator mutator = new Mutator(config, registry);
+		final SplittableRandom random = new SplittableRandom(1);
+
+		final List<Genome> pool = new ArrayList<>();
+		for (int i = 0; i < POOL_SIZE; i++) {
+			final Network n = emptyNetwork(8, 5);
+			registry.reserve(n);
+			final Genome genome = Genome.of(n);
+			genome.toNetwork();
+			pool.add(genome);
+		}
+
+		int patched = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			final Genome mother = pool.get(random.nextInt(POOL_SIZE));
+			// mostly a close relative, as parents from the same species are
+			final Genome father = random.nextInt(4) == 0 ?
+					pool.get(random.nextInt(POOL_SIZE)) : mother;
+
+			final Genome child = mother.emptyCopy();
+			Genome.crossover(mother, father, child, random.split());
+			mutator.mutate(child, random);
+
+			final Phenotype kept = child.getPhenotype();
+			if (kept != null && (kept.inputIndices == mother.getPhenotype().inputIndices ||
+					kept.inputIndices == father.getPhenotype().inputIndices))
+				patched++;
+
+			final Network network = child.toNetwork();
+			assertSameOutputs(Phenotype.of(network), network.getPhenotype(), random,
+					"genome of round " + round);
+			pool.set(random.nextInt(POOL_SIZE), child);
+
+			if (round % POOL_SIZE == 0)
+				registry.nextGeneration();
+		}
+
+		check(patched > ROUNDS / 2, "only " + patched + " of " + ROUNDS + " children patched");
+	}
+
+	/**
+	 * Mutates networks one after another, each time checking the phenotype it kept.
+	 */
+	private static void mutatedNetworksArePatched(Config config) {
+		final InnovationRegistry registry = new InnovationRegistry();
+		final Mutator mutator = new Mutator(config, registry);
+		final SplittableRandom random = new SplittableRandom(2);
+
+		for (int lineage = 0; lineage < POOL_SIZE; lineage++) {
+			final Network network = emptyNetwork(8, 5);
+			registry.reserve(network);
+			network.getPhenotype();
+
+			for (int round = 0; round < ROUNDS / POOL_SIZE; round++) {
+				mutator.mutate(network, random);
+				assertSameOutputs(Phenotype.of(network), network.getPhenotype(), random,
+						"network " + lineage + " after " + round + " mutations");
+				registry.nextGeneration();
+			}
+		}
+	}
+
+
+	private static void assertSameOutputs(Phenotype expected, Phenotype actual,
+										  SplittableRandom random, String what) {
+		final double[] inputs = new double[8];
+		final double[] expectedOutputs = new double[5], actualOutputs = new double[5];
+
+		for (int step = 0; step < STEPS; step++) {
+			for (int i = 0; i < inputs.length; i++)
+				inputs[i] = random.nextDouble(-1, 1);
+			expected.compute(inputs, expectedOutputs);
+			actual.compute(inputs, actualOutputs);
+
+			for (int i = 0; i < expectedOutputs.length; i++)
+				check(Math.abs(expectedOutputs[i] - actualOutputs[i]) <= TOLERANCE,
+						what + ": output " + i + " at step " + step + " is " +
+								actualOutputs[i] + ", not " + expectedOutputs[i]);
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	private static Network emptyNetwork(int inputCount, int outputCount) {
+		final Network network = new Network();
+		for (int i = 0; i < inputCount; i++)
+			network.getInputNodes().add(
+					new Node.NodeBuilder(NodeType.INPUT, network.getNextNodeID()).build());
+		for (int i = 0; i < outputCount; i++)
+			network.getOutputNodes().add(
+					new Node.NodeBuilder(NodeType.OUTPUT, network.getNextNodeID()).build());
+		return network;
+	}
+}